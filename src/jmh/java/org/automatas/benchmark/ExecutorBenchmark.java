@@ -0,0 +1,79 @@
+package org.automatas.benchmark;
+
+import org.automatas.engine.Backend;
+import org.automatas.engine.Executor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole programs run by each backend. Every invocation parses and runs the file, as executeFile() does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExecutorBenchmark {
+    @Param({"TREE_WALKER", "MACHINE"})
+    public Backend backend;
+
+    private Executor executor;
+    private String fib;
+    private String forLoop;
+    private String whileLoop;
+    private String arrays;
+    private String structs;
+    private String strings;
+
+    @Setup
+    public void setUp() {
+        executor = new Executor();
+        executor.setBackend(backend);
+
+        // Measure the calls themselves, not the cache of results
+        executor.setMemoization(false);
+
+        fib = Programs.write(Programs.FIB).toString();
+        forLoop = Programs.write(Programs.FOR_LOOP).toString();
+        whileLoop = Programs.write(Programs.WHILE_LOOP).toString();
+        arrays = Programs.write(Programs.ARRAYS).toString();
+        structs = Programs.write(Programs.STRUCTS).toString();
+        strings = Programs.write(Programs.STRINGS).toString();
+    }
+
+    @Benchmark
+    public void fib() {
+        executor.executeFile(fib);
+    }
+
+    @Benchmark
+    public void forLoop() {
+        executor.executeFile(forLoop);
+    }
+
+    @Benchmark
+    public void whileLoop() {
+        executor.executeFile(whileLoop);
+    }
+
+    @Benchmark
+    public void arrays() {
+        executor.executeFile(arrays);
+    }
+
+    @Benchmark
+    public void structs() {
+        executor.executeFile(structs);
+    }
+
+    @Benchmark
+    public void strings() {
+        executor.executeFile(strings);
+    }
+}
@@ -0,0 +1,57 @@
+package org.automatas.benchmark;
+
+import java_cup.runtime.ComplexSymbolFactory;
+import java_cup.runtime.Symbol;
+import org.automatas.language.Lexer;
+import org.automatas.language.Parser;
+import org.automatas.language.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing and parsing of large generated sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParserBenchmark {
+    @Param({"100", "1000"})
+    public int functions;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = Programs.generate(functions);
+    }
+
+    @Benchmark
+    public int lex() throws Exception {
+        var lexer = new Lexer(new StringReader(source), new ComplexSymbolFactory());
+        int tokens = 0;
+
+        while (lexer.next_token().sym != Token.EOF) {
+            tokens++;
+        }
+
+        return tokens;
+    }
+
+    @Benchmark
+    public Object parse() throws Exception {
+        var factory = new ComplexSymbolFactory();
+        var parser = new Parser(new Lexer(new StringReader(source), factory), factory);
+
+        Symbol result = parser.parse();
+        return result.value;
+    }
+}
@@ -0,0 +1,124 @@
+package org.automatas.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sources used by the benchmarks. Executor reads programs from files, so they are written to temporary files.
+ */
+final class Programs {
+    static final String FIB = """
+            fn fib(n)
+            {
+                if n <= 1 {
+                    return n;
+                }
+
+                return fib(n - 1) + fib(n - 2);
+            }
+            n := fib(20);
+            """;
+
+    static final String FOR_LOOP = """
+            sum := 0;
+            for i := 0; i < 100000; i++ {
+                x := i * 2;
+                sum = sum + x % 7;
+            }
+            """;
+
+    static final String WHILE_LOOP = """
+            sum := 0;
+            i := 0;
+            while i < 100000 {
+                sum = sum + i;
+                i++;
+            }
+            """;
+
+    static final String ARRAYS = """
+            arr := [];
+            for i := 0; i < 10000; i++ {
+                arr[] = i;
+            }
+            sum := 0;
+            for j := 0; j < 10000; j++ {
+                sum = sum + arr[j];
+            }
+            foreach v in arr {
+                sum = sum + v;
+            }
+            """;
+
+    static final String STRUCTS = """
+            struct Point {
+                pub x;
+                pub y;
+            }
+            sum := 0;
+            for i := 0; i < 10000; i++ {
+                p := new Point;
+                p.x = i;
+                p.y = i + 1;
+                sum = sum + p.x * p.y;
+            }
+            """;
+
+    static final String STRINGS = """
+            s := "";
+            for i := 0; i < 2000; i++ {
+                s = s + "ab";
+            }
+            n := len(s);
+            """;
+
+    private Programs() {
+    }
+
+    /**
+     * Generates a source with the given number of functions and a call to each of them.
+     *
+     * @param functions The number of functions.
+     * @return The source code.
+     */
+    static String generate(int functions) {
+        var sb = new StringBuilder();
+
+        for (int i = 0; i < functions; i++) {
+            sb.append("fn f").append(i).append("(a, b) {\n")
+                    .append("    x := a * ").append(i).append(" + b;\n")
+                    .append("    if x > 100 && b != 0 {\n")
+                    .append("        return x % 7;\n")
+                    .append("    }\n")
+                    .append("    foreach v in [1, 2.5, \"three\", true] {\n")
+                    .append("        x = x + len(v as string);\n")
+                    .append("    }\n")
+                    .append("    return x;\n")
+                    .append("}\n");
+        }
+
+        for (int i = 0; i < functions; i++) {
+            sb.append("r").append(i).append(" := f").append(i).append("(").append(i).append(", 0x1f);\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes a source to a temporary file, deleted when the JVM exits.
+     *
+     * @param source The source code.
+     * @return The path of the file.
+     */
+    static Path write(String source) {
+        try {
+            Path file = Files.createTempFile("analyzer-bench", ".txt");
+            file.toFile().deleteOnExit();
+            return Files.writeString(file, source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.automatas.benchmark;
+
+import org.automatas.engine.Scalar;
+import org.automatas.engine.ScalarOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arithmetic and comparison of single Scalars.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScalarBenchmark {
+    /* Not final, so the JIT cannot fold the operations */
+    private Scalar int1 = Scalar.makeInt(1234);
+    private Scalar int2 = Scalar.makeInt(56);
+    private Scalar float1 = Scalar.makeFloat(12.34);
+    private Scalar float2 = Scalar.makeFloat(5.6);
+    private Scalar string1 = Scalar.makeString("abc");
+    private Scalar string2 = Scalar.makeString("abd");
+
+    @Benchmark
+    public Scalar addInt() {
+        return ScalarOperation.add(int1, int2);
+    }
+
+    @Benchmark
+    public Scalar addMixed() {
+        return ScalarOperation.add(int1, float2);
+    }
+
+    @Benchmark
+    public Scalar multiplyFloat() {
+        return ScalarOperation.multiply(float1, float2);
+    }
+
+    @Benchmark
+    public Scalar divideInt() {
+        return ScalarOperation.divide(int1, int2);
+    }
+
+    @Benchmark
+    public Scalar moduloInt() {
+        return ScalarOperation.modulo(int1, int2);
+    }
+
+    @Benchmark
+    public Scalar concatString() {
+        return ScalarOperation.add(string1, string2);
+    }
+
+    @Benchmark
+    public int compareInt() {
+        return int1.compareTo(int2);
+    }
+
+    @Benchmark
+    public int compareString() {
+        return string1.compareTo(string2);
+    }
+
+    @Benchmark
+    public boolean equalsFloat() {
+        return float1.equals(float2);
+    }
+}
@@ -0,0 +1,403 @@
+package org.automatas.engine;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the objects allocated by the executions of a script, and estimates their size, per user function and per
+ * source line (see Executor.setAllocationAccounting()).
+ * <p>
+ * The allocation sites (the constructors of the counted classes, and the frames of ScopeManager) test a static flag,
+ * set while any execution is accounted, and then count for the Recorder of the current thread. Every Interpreter
+ * (or Machine) of an accounted execution attaches its own Recorder to its thread, and merges it into the
+ * AllocationProfiler when it ends. The sizes are shallow and assume a 64-bit JVM with compressed references; the
+ * strings and lists held by the values are not counted.
+ */
+public final class AllocationProfiler {
+    /**
+     * The counted objects.
+     */
+    public enum Kind {
+        SCALAR,
+        NODE,
+        FRAME,
+        ARRAY_REFERENCE,
+        STRUCT_REFERENCE,
+        STRUCT_INSTANCE;
+
+        @Override
+        public String toString() {
+            return super.toString().toLowerCase().replace('_', ' ');
+        }
+    }
+
+    /* Estimated sizes: 12 bytes of header, 4 per reference, aligned to 8 */
+    static final int SCALAR_BYTES = 32;
+    static final int NODE_BYTES = 24;
+    static final int REFERENCE_BYTES = 24;
+    static final int STRUCT_INSTANCE_BYTES = 24;
+
+    /* The number of lines printed per section by printReport() */
+    private static final int REPORT_LINES = 20;
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final ScalarType[] TYPES = ScalarType.values();
+
+    /* Counters per Kind, then per ScalarType (the Scalars are counted in both) */
+    private static final int SLOTS = KINDS.length + TYPES.length;
+
+    /* The number of Recorders attached; the allocation sites count while it's not 0 */
+    private static int attached;
+    static boolean enabled;
+
+    private static final ThreadLocal<Recorder> CURRENT = new ThreadLocal<>();
+
+    private final HashMap<String, Usage> functions = new HashMap<>();
+    private final HashMap<Integer, Usage> lines = new HashMap<>();
+
+    /**
+     * The objects allocated by a function or a line.
+     */
+    public static final class Usage {
+        private final String name;
+        private final long[] counts = new long[SLOTS];
+        private final long[] bytes = new long[SLOTS];
+
+        private Usage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount(Kind kind) {
+            return counts[kind.ordinal()];
+        }
+
+        public long getBytes(Kind kind) {
+            return bytes[kind.ordinal()];
+        }
+
+        /**
+         * Gets the number of Scalars of a type (null for the Scalars that hold no value).
+         *
+         * @param type The type of the Scalars.
+         * @return The count.
+         */
+        public long getScalarCount(ScalarType type) {
+            return type != null ? counts[KINDS.length + type.ordinal()] : getCount(Kind.SCALAR) - typedScalars();
+        }
+
+        public long getTotalCount() {
+            long total = 0;
+            for (int i = 0; i < KINDS.length; i++) {
+                total += counts[i];
+            }
+
+            return total;
+        }
+
+        public long getTotalBytes() {
+            long total = 0;
+            for (int i = 0; i < KINDS.length; i++) {
+                total += bytes[i];
+            }
+
+            return total;
+        }
+
+        private long typedScalars() {
+            long total = 0;
+            for (int i = KINDS.length; i < SLOTS; i++) {
+                total += counts[i];
+            }
+
+            return total;
+        }
+
+        private void add(long[] counts, long[] bytes) {
+            for (int i = 0; i < SLOTS; i++) {
+                this.counts[i] += counts[i];
+                this.bytes[i] += bytes[i];
+            }
+        }
+
+        private Usage copy() {
+            var copy = new Usage(name);
+            copy.add(counts, bytes);
+            return copy;
+        }
+    }
+
+    /**
+     * Gets the objects allocated by the whole execution.
+     *
+     * @return The totals.
+     */
+    public synchronized Usage getTotal() {
+        var total = new Usage("total");
+        for (Usage usage : functions.values()) {
+            total.add(usage.counts, usage.bytes);
+        }
+
+        return total;
+    }
+
+    /**
+     * Gets the objects allocated per user function ("main" for the top-level code), excluding the functions it calls.
+     *
+     * @return The usages, by decreasing size.
+     */
+    public synchronized List<Usage> getFunctions() {
+        return ranked(functions.values());
+    }
+
+    /**
+     * Gets the objects allocated per source line. Blocks and nodes without a position count for the line of their
+     * parent; the MACHINE backend counts everything for "(no line)".
+     *
+     * @return The usages, named "line N", by decreasing size.
+     */
+    public synchronized List<Usage> getLines() {
+        return ranked(lines.values());
+    }
+
+    /**
+     * Prints the totals per kind of object, and the functions and lines that allocated the most.
+     *
+     * @param out The stream to write.
+     */
+    public void printReport(PrintStream out) {
+        Usage total = getTotal();
+
+        out.println("Allocations (estimated shallow bytes)");
+        out.println();
+        out.printf("%-28s %14s %14s%n", "Objects", "count", "bytes");
+        for (Kind kind : KINDS) {
+            out.printf("  %-26s %14d %14d%n", kind, total.getCount(kind), total.getBytes(kind));
+
+            if (kind == Kind.SCALAR) {
+                for (ScalarType type : TYPES) {
+                    if (total.getScalarCount(type) > 0) {
+                        out.printf("    %-24s %14d%n", type, total.getScalarCount(type));
+                    }
+                }
+            }
+        }
+
+        printSection(out, "Functions", getFunctions());
+        printSection(out, "Lines", getLines());
+    }
+
+    private static void printSection(PrintStream out, String title, List<Usage> usages) {
+        out.println();
+        out.printf("%-28s %14s %14s %14s %14s%n", title, "objects", "bytes", "scalars", "frames");
+
+        for (Usage usage : usages.subList(0, Math.min(usages.size(), REPORT_LINES))) {
+            out.printf("  %-26s %14d %14d %14d %14d%n", usage.name, usage.getTotalCount(), usage.getTotalBytes(),
+                    usage.getCount(Kind.SCALAR), usage.getCount(Kind.FRAME));
+        }
+
+        if (usages.size() > REPORT_LINES) {
+            out.printf("  (%d more)%n", usages.size() - REPORT_LINES);
+        }
+    }
+
+    private static List<Usage> ranked(Iterable<Usage> usages) {
+        var list = new ArrayList<Usage>();
+        for (Usage usage : usages) {
+            list.add(usage.copy());
+        }
+
+        list.sort(Comparator.comparingLong(Usage::getTotalBytes).reversed());
+        return list;
+    }
+
+    /**
+     * Counts the allocation of a Scalar.
+     *
+     * @param type The type of the Scalar (null if it holds no value).
+     */
+    static void countScalar(ScalarType type) {
+        Recorder recorder = CURRENT.get();
+        if (recorder != null) {
+            recorder.add(Kind.SCALAR.ordinal(), SCALAR_BYTES);
+
+            if (type != null) {
+                recorder.add(KINDS.length + type.ordinal(), SCALAR_BYTES);
+            }
+        }
+    }
+
+    /**
+     * Counts the allocation of an object.
+     *
+     * @param kind  The kind of object.
+     * @param bytes The estimated size.
+     */
+    static void count(Kind kind, long bytes) {
+        Recorder recorder = CURRENT.get();
+        if (recorder != null) {
+            recorder.add(kind.ordinal(), bytes);
+        }
+    }
+
+    /**
+     * Estimates the size of an array of references.
+     *
+     * @param length The length of the array.
+     * @return The size, in bytes.
+     */
+    static long arrayBytes(int length) {
+        return (16 + 4L * length + 7) & ~7L;
+    }
+
+    /**
+     * Attaches a new Recorder to the current thread, until it's finished (the Recorder attached before is restored).
+     *
+     * @param function The name of the function that runs first ("main" for the top-level code).
+     * @return The recorder.
+     */
+    public Recorder attach(String function) {
+        var recorder = new Recorder(function, CURRENT.get());
+        CURRENT.set(recorder);
+
+        synchronized (AllocationProfiler.class) {
+            enabled = ++attached > 0;
+        }
+
+        return recorder;
+    }
+
+    private synchronized void merge(Recorder recorder) {
+        recorder.functions.forEach((name, counters) ->
+                functions.computeIfAbsent(name, Usage::new).add(counters[0], counters[1]));
+
+        for (int line = 0; line < recorder.lines.length; line++) {
+            long[][] counters = recorder.lines[line];
+            if (counters != null) {
+                lines.computeIfAbsent(line, key -> new Usage(key > 0 ? "line " + key : "(no line)"))
+                        .add(counters[0], counters[1]);
+            }
+        }
+    }
+
+    /**
+     * Counts the allocations of an Interpreter (or Machine), for the function and the line it runs. Used by a
+     * single thread.
+     */
+    public final class Recorder {
+        private final Recorder previous;
+
+        /* Counters (counts, then bytes) per function and per line */
+        private final HashMap<String, long[][]> functions = new HashMap<>();
+        private long[][][] lines = new long[64][][];
+
+        /* The functions being run, and their counters */
+        private String[] names = new String[16];
+        private long[][][] calls = new long[16][][];
+        private int depth;
+        private int line;
+
+        private Recorder(String function, Recorder previous) {
+            this.previous = previous;
+            names[0] = function;
+            calls[0] = counters(function);
+        }
+
+        /**
+         * Gets the function being run (eg: to count the allocations of a parallel foreach worker for it).
+         *
+         * @return The name of the function.
+         */
+        public String getFunction() {
+            return names[depth];
+        }
+
+        /**
+         * Sets the line of the node being run (see Profiler.Recorder for the lines of blocks).
+         *
+         * @param ast The node.
+         * @return The line of the node that was being run, for exitNode().
+         */
+        public int enterNode(Ast ast) {
+            int current = line;
+            if (ast.line > 0 && ast.kind != AstKind.AST_STATEMENT_LIST) {
+                line = ast.line;
+            }
+
+            return current;
+        }
+
+        public void exitNode(int previousLine) {
+            line = previousLine;
+        }
+
+        public void enterFunction(String name) {
+            if (++depth == calls.length) {
+                names = Arrays.copyOf(names, depth * 2);
+                calls = Arrays.copyOf(calls, depth * 2);
+            }
+
+            names[depth] = name;
+            calls[depth] = counters(name);
+        }
+
+        /**
+         * Replaces the function being run (eg: for a tail call).
+         *
+         * @param name The name of the function.
+         */
+        public void replaceFunction(String name) {
+            names[depth] = name;
+            calls[depth] = counters(name);
+        }
+
+        public void exitFunction() {
+            names[depth] = null;
+            calls[depth--] = null;
+        }
+
+        /**
+         * Adds the counts to the AllocationProfiler, and restores the Recorder attached before to the thread.
+         */
+        public void finish() {
+            CURRENT.set(previous);
+
+            synchronized (AllocationProfiler.class) {
+                enabled = --attached > 0;
+            }
+
+            merge(this);
+        }
+
+        private long[][] counters(String function) {
+            return functions.computeIfAbsent(function, key -> new long[][]{new long[SLOTS], new long[SLOTS]});
+        }
+
+        private void add(int slot, long size) {
+            long[][] function = calls[depth];
+            function[0][slot]++;
+            function[1][slot] += size;
+
+            if (line >= lines.length) {
+                lines = Arrays.copyOf(lines, Math.max(lines.length * 2, line + 1));
+            }
+
+            long[][] counters = lines[line];
+            if (counters == null) {
+                counters = new long[][]{new long[SLOTS], new long[SLOTS]};
+                lines[line] = counters;
+            }
+
+            counters[0][slot]++;
+            counters[1][slot] += size;
+        }
+    }
+}
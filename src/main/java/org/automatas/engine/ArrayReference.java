@@ -1,7 +1,5 @@
 package org.automatas.engine;
 
-import java.util.List;
-
 /**
  * Holds a reference to an array index within a Scalar object.
  */
@@ -19,6 +17,10 @@ public final class ArrayReference implements Reference {
         assert array.isArray();
         this.array = array;
         this.index = index;
+
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.count(AllocationProfiler.Kind.ARRAY_REFERENCE, AllocationProfiler.REFERENCE_BYTES);
+        }
     }
 
     /**
@@ -46,9 +48,8 @@ public final class ArrayReference implements Reference {
      */
     @Override
     public Scalar getValue() {
-        List<Scalar> list = array.toList();
         int pos = (int) index.toLong();
-        return list.get(pos);
+        return array.toArray().get(pos);
     }
 
     /**
@@ -58,15 +59,13 @@ public final class ArrayReference implements Reference {
      */
     @Override
     public void setValue(Scalar value) {
-        List<Scalar> list = array.toList();
         int pos = (int) index.toLong();
-        list.set(pos, value);
+        array.toArray().put(pos, value);
     }
 
     @Override
     public void remove() {
-        List<Scalar> list = array.toList();
         int pos = (int) index.toLong();
-        list.remove(pos);
+        array.toArray().remove(pos);
     }
 }
@@ -11,6 +11,31 @@ public final class Ast {
     public final ScalarType type;
     public final Ast[] child;
 
+    /* Position in the source (1-based): set by the parser on literals, identifiers and statements that start with a
+       keyword; the other nodes take the position of their first child. 0 if unknown. */
+    public int line;
+    public int column;
+
+    /* Annotations set by the Resolver */
+    public int slot = -1;           /* AST_IDENTIFIER: frame slot of the innermost visible declaration. */
+    public int[] shadowedSlots;     /* AST_IDENTIFIER: slots of the outer declarations hidden by the innermost one. */
+    public int blockStart;          /* Block owners: first frame slot declared by the block. */
+    public int blockEnd;            /* Block owners: first frame slot past the ones declared by the block. */
+    public boolean tailCall;        /* AST_CALL: the call is the value of a return statement within a function. */
+    public int[] sharedSlots;       /* AST_PARALLEL_FOREACH: slots of the outer variables used by the body. */
+
+    /* Arithmetic and comparison operators: rewritten on execution with a node specialized for the operand types. */
+    public OperatorNode operator = OperatorNode.UNINITIALIZED;
+
+    /* AST_SCALAR: the value of the literal; AST_ARRAY of literals: the array copied by every evaluation. */
+    public Scalar constant;
+
+    /* AST_CALL: the function bound by the Linker (a built-in or a user function). */
+    public Linker.Binding binding;
+
+    /* AST_STRUCT_ACCESS: inline cache with the slot of the member for the last struct layout accessed. */
+    public StructLayout.Member memberCache;
+
     /**
      * Creates an Ast instance for Ast nodes.
      *
@@ -65,6 +90,19 @@ public final class Ast {
         return new Ast(AstKind.AST_IDENTIFIER, name, null, EMPTY_CHILD);
     }
 
+    /**
+     * Sets the position of the node in the source.
+     *
+     * @param line   The line (1-based).
+     * @param column The column (1-based).
+     * @return The Ast instance.
+     */
+    public Ast at(int line, int column) {
+        this.line = line;
+        this.column = column;
+        return this;
+    }
+
     /**
      * Ast constructor.
      *
@@ -78,6 +116,14 @@ public final class Ast {
         this.value = value;
         this.type = type;
         this.child = child;
+
+        for (Ast ast : child) {
+            if (ast != null && ast.line > 0) {
+                this.line = ast.line;
+                this.column = ast.column;
+                break;
+            }
+        }
     }
 
     @Override
@@ -51,11 +51,14 @@ public enum AstKind {
     AST_AS,
     AST_IS,
     AST_NEW,
+    AST_SPAWN,
     AST_UNSET,
     AST_IF,
     AST_IF_ELSE,
     AST_FOR,
     AST_FOREACH,
+    AST_PARALLEL_FOREACH,
+    AST_REDUCTION,
     AST_DO_WHILE,
     AST_WHILE,
 }
@@ -0,0 +1,9 @@
+package org.automatas.engine;
+
+/**
+ * Represents the strategies available to run a parsed program.
+ */
+public enum Backend {
+    TREE_WALKER, /* Evaluates the Ast directly. */
+    MACHINE,     /* Compiles the Ast into instructions for the runtime Machine. */
+}
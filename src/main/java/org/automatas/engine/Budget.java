@@ -0,0 +1,187 @@
+package org.automatas.engine;
+
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The limits of one execution of a script (see Context.setBudget()), and the token that cancels it.
+ * <p>
+ * The work of a script is counted in steps: every loop iteration and every call to a user function is one step
+ * (straight-line code is bounded by the size of the script, so this bounds the whole execution). Both backends count
+ * the same steps. Every Interpreter (or Machine) of the execution, including the ones of its tasks and parallel
+ * loops, takes steps from the budget by slices, through its own Meter; the time and the cancellation are checked
+ * when a slice is taken, so a step costs a decrement in the common case. The slices get smaller as the budget runs
+ * out, and a Meter gives its unused steps back when its code ends, so the limit applies to the steps actually run.
+ * The call depth is counted per thread.
+ * <p>
+ * When a limit is exceeded, or the budget is cancelled, the execution stops with an ExecutionAbortedException.
+ * Code waiting for a task, a channel or the input is only stopped when it runs again.
+ */
+public final class Budget {
+    /* The number of steps taken at once by a Meter */
+    static final int SLICE = 1024;
+
+    private final long maxSteps;
+    private final long timeoutNanos;
+    private final int maxCallDepth;
+
+    /* The steps taken by the Meters, including the unused part of the slices held by the running ones */
+    private final AtomicLong taken = new AtomicLong();
+
+    /* The number of Meters likely to take slices at once (eg: the workers of a parallel loop) */
+    private final int parallelism = Math.max(ForkJoinPool.getCommonPoolParallelism(), 1);
+
+    private volatile long deadline;
+    private volatile boolean started;
+    private volatile boolean cancelled;
+
+    /**
+     * Budget constructor.
+     *
+     * @param maxSteps     The maximum number of loop iterations and calls, or 0 for no limit.
+     * @param timeout      The maximum run time, from the start of the execution, or null for no limit.
+     * @param maxCallDepth The maximum number of nested calls to user functions per thread, or 0 for no limit.
+     */
+    public Budget(long maxSteps, Duration timeout, int maxCallDepth) {
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.timeoutNanos = timeout != null ? Math.max(timeout.toNanos(), 0) : Long.MAX_VALUE;
+        this.maxCallDepth = maxCallDepth > 0 ? maxCallDepth : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a budget with no limits, which only stops the execution when it's cancelled.
+     *
+     * @return The budget.
+     */
+    public static Budget unlimited() {
+        return new Budget(0, null, 0);
+    }
+
+    /**
+     * Stops the execution that uses this budget, as soon as one of its loops or calls runs. Thread-safe.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Gets the number of steps taken so far. While the execution runs, it includes the unused part of the slices
+     * held by its Meters; it's exact once the execution has ended.
+     *
+     * @return The count.
+     */
+    public long getSteps() {
+        return taken.get();
+    }
+
+    /**
+     * Starts the time of the execution (the first call wins; CompiledScript.execute() calls it).
+     */
+    synchronized void start() {
+        if (!started) {
+            deadline = System.nanoTime() + timeoutNanos;
+            started = true;
+        }
+    }
+
+    /**
+     * Creates the Meter of an Interpreter (or Machine).
+     *
+     * @param callDepth The call depth of the code that started it (eg: for a parallel loop), or 0.
+     * @return The meter (used by a single thread).
+     */
+    public Meter meter(int callDepth) {
+        return new Meter(callDepth);
+    }
+
+    /**
+     * Takes a slice of steps, after checking the cancellation and the time.
+     *
+     * @return The number of steps taken.
+     */
+    private long take() {
+        if (cancelled) {
+            throw new ExecutionAbortedException(ExecutionAbortedException.Reason.CANCELLED, "execution cancelled.");
+        }
+
+        // Compared by difference, as System.nanoTime() may overflow
+        if (timeoutNanos != Long.MAX_VALUE && started && System.nanoTime() - deadline > 0) {
+            throw new ExecutionAbortedException(ExecutionAbortedException.Reason.TIMEOUT,
+                    "time budget of %d ms exceeded.".formatted(timeoutNanos / 1_000_000));
+        }
+
+        while (true) {
+            long current = taken.get();
+            long remaining = maxSteps - current;
+
+            if (remaining <= 0) {
+                throw new ExecutionAbortedException(ExecutionAbortedException.Reason.STEPS,
+                        "step budget of %d exceeded.".formatted(maxSteps));
+            }
+
+            // Leave some steps for the other Meters when the budget runs out
+            long slice = Math.min(SLICE, Math.max(remaining / parallelism, 1));
+
+            if (taken.compareAndSet(current, current + slice)) {
+                return slice;
+            }
+        }
+    }
+
+    /**
+     * Counts the steps and the call depth of an Interpreter (or Machine). Not thread-safe.
+     */
+    public final class Meter {
+        private long left;
+        private int depth;
+
+        private Meter(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * Counts a loop iteration (or a tail call).
+         */
+        public void step() {
+            if (--left < 0) {
+                left = take() - 1;
+            }
+        }
+
+        /**
+         * Counts a call that adds a frame.
+         */
+        public void enterCall() {
+            if (++depth > maxCallDepth) {
+                throw new ExecutionAbortedException(ExecutionAbortedException.Reason.CALL_DEPTH,
+                        "call depth limit of %d exceeded.".formatted(maxCallDepth));
+            }
+
+            step();
+        }
+
+        public void exitCall() {
+            depth--;
+        }
+
+        /**
+         * Gives the unused steps back to the budget, when the code of the meter ends
+         * (or waits for a parallel loop). The meter can keep counting afterwards.
+         */
+        public void retire() {
+            if (left > 0) {
+                taken.addAndGet(-left);
+                left = 0;
+            }
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+    }
+}
@@ -1,31 +1,35 @@
 package org.automatas.engine;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BuiltInFunctions {
-    public static void loadBuiltIns(HashMap<String, FunctionHandler> handlers) {
+    public static void loadBuiltIns(Map<String, FunctionHandler> handlers) {
         handlers.put("print", BuiltInFunctions::handlePrint);
         handlers.put("printf", BuiltInFunctions::handlePrintf);
         handlers.put("input", BuiltInFunctions::handleInput);
+        handlers.put("lines", BuiltInFunctions::handleLines);
+        handlers.put("await", BuiltInFunctions::handleAwait);
+        handlers.put("channel", BuiltInFunctions::handleChannel);
+        handlers.put("send", BuiltInFunctions::handleSend);
+        handlers.put("receive", BuiltInFunctions::handleReceive);
+        handlers.put("close", BuiltInFunctions::handleClose);
     }
 
-    private static void handlePrint(Node result, List<Scalar> args) {
+    private static void handlePrint(Context context, Node result, List<Scalar> args) {
         if (args.isEmpty()) {
             result.raiseError("Too few arguments: print() requires 1 argument, 0 provided.");
             return;
         }
 
         String message = args.get(0).toString();
-        System.out.println(message);
+        context.getOut().println(message);
 
         result.fnReturn();
     }
 
-    private static void handlePrintf(Node result, List<Scalar> args) {
+    private static void handlePrintf(Context context, Node result, List<Scalar> args) {
         if (args.isEmpty()) {
             result.raiseError("Too few arguments: printf() requires at least 1 argument, 0 provided.");
             return;
@@ -38,20 +42,19 @@ public class BuiltInFunctions {
             values[i - 1] = args.get(i).getRawValue();
         }
 
-        System.out.printf(format, values);
+        context.getOut().printf(format, values);
 
         result.fnReturn();
     }
 
-    private static void handleInput(Node result, List<Scalar> args) {
+    private static void handleInput(Context context, Node result, List<Scalar> args) {
         if (!args.isEmpty()) {
             String prompt = args.get(0).toString();
-            System.out.print(prompt);
+            context.getOut().print(prompt);
         }
 
         try {
-            var reader = new BufferedReader(new InputStreamReader(System.in));
-            String input = reader.readLine();
+            String input = context.readLine();
             Scalar value = Scalar.makeString(input);
 
             result.fnReturn(value);
@@ -60,6 +63,84 @@ public class BuiltInFunctions {
         }
     }
 
+    private static void handleLines(Context context, Node result, List<Scalar> args) {
+        result.fnReturn(Scalar.makeStream(context.getIn().lines()));
+    }
+
+    private static void handleAwait(Context context, Node result, List<Scalar> args) {
+        if (args.isEmpty() || args.get(0) == null || !args.get(0).isTask()) {
+            result.raiseError("await() expects a task.");
+            return;
+        }
+
+        // Tasks that return nothing give nothing
+        result.fnReturn(args.get(0).toTask().await());
+    }
+
+    private static void handleChannel(Context context, Node result, List<Scalar> args) {
+        long capacity = args.isEmpty() ? 1 : args.get(0).toLong();
+
+        if (capacity < 1 || capacity > Integer.MAX_VALUE - 8) {
+            result.raiseError("Invalid channel capacity %d.", capacity);
+            return;
+        }
+
+        result.fnReturn(Scalar.makeChannel(new Channel((int) capacity)));
+    }
+
+    private static void handleSend(Context context, Node result, List<Scalar> args) {
+        Channel channel = channelArgument(result, args, "send");
+        if (channel == null) {
+            return;
+        }
+
+        if (args.size() < 2 || args.get(1) == null) {
+            result.raiseError("Too few arguments: send() requires a value.");
+            return;
+        }
+
+        if (!channel.send(args.get(1))) {
+            result.raiseError("Cannot send to a closed channel.");
+            return;
+        }
+
+        result.fnReturn();
+    }
+
+    private static void handleReceive(Context context, Node result, List<Scalar> args) {
+        Channel channel = channelArgument(result, args, "receive");
+        if (channel == null) {
+            return;
+        }
+
+        Scalar value = channel.receive();
+        if (value == null) {
+            result.raiseError("Cannot receive from a closed channel.");
+            return;
+        }
+
+        result.fnReturn(value);
+    }
+
+    private static void handleClose(Context context, Node result, List<Scalar> args) {
+        Channel channel = channelArgument(result, args, "close");
+        if (channel == null) {
+            return;
+        }
+
+        channel.close();
+        result.fnReturn();
+    }
+
+    private static Channel channelArgument(Node result, List<Scalar> args, String function) {
+        if (args.isEmpty() || args.get(0) == null || !args.get(0).isChannel()) {
+            result.raiseError("%s() expects a channel.", function);
+            return null;
+        }
+
+        return args.get(0).toChannel();
+    }
+
     /**
      * Static class.
      */
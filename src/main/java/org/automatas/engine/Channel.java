@@ -0,0 +1,151 @@
+package org.automatas.engine;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of values shared by tasks. Senders wait while the channel is full, and receivers wait while it
+ * is empty, so a fast producer cannot get ahead of its consumers by more than the capacity.
+ * <p>
+ * Iterating a channel receives its values until it's closed and drained. The values sent are isolated (see
+ * Scalar.isolate()), so the sender may keep modifying its arrays and instances.
+ */
+public final class Channel implements Iterable<Scalar> {
+    private final Scalar[] buffer;
+    private int head;
+    private int count;
+    private boolean closed;
+
+    /* Waiting threads are virtual threads most of the time: a ReentrantLock doesn't pin them to their carrier */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * Channel constructor.
+     *
+     * @param capacity The maximum number of values waiting to be received (at least 1).
+     */
+    public Channel(int capacity) {
+        this.buffer = new Scalar[capacity];
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Sends a value, waiting while the channel is full.
+     *
+     * @param value The value to send.
+     * @return False if the channel is closed (the value is discarded); true otherwise.
+     */
+    public boolean send(Scalar value) {
+        Scalar isolated = Scalar.isolate(value);
+
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) {
+                notFull.await();
+            }
+
+            if (closed) {
+                return false;
+            }
+
+            buffer[(head + count) % buffer.length] = isolated;
+            count++;
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Fatal Error: interrupted while sending to a channel.", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Receives a value, waiting while the channel is empty.
+     *
+     * @return The value, or null if the channel is closed and drained.
+     */
+    public Scalar receive() {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+
+            if (count == 0) {
+                return null;
+            }
+
+            Scalar value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Fatal Error: interrupted while receiving from a channel.", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the channel. The values already sent can still be received; senders and receivers waiting on an
+     * empty channel are woken up.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over the values received from the channel, until it's closed and drained.
+     *
+     * @return The iterator (it waits for the values).
+     */
+    @Override
+    public Iterator<Scalar> iterator() {
+        return new Iterator<>() {
+            private Scalar next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = receive();
+                }
+
+                return next != null;
+            }
+
+            @Override
+            public Scalar next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Scalar value = next;
+                next = null;
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "channel(" + buffer.length + ")";
+    }
+}
@@ -0,0 +1,202 @@
+package org.automatas.engine;
+
+import org.automatas.runtime.Compiler;
+import org.automatas.runtime.Machine;
+import org.automatas.runtime.Program;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A parsed and prepared program, created by Executor.compile().
+ * <p>
+ * A CompiledScript never changes after it's created, so it can be shared and executed by many threads at once:
+ * each execution keeps its scopes in its own Interpreter (or Machine), and its I/O streams and caches in the
+ * Context it runs with. The only writes to the Ast at runtime are the caches of the operators, struct accesses and
+ * call sites, which replace immutable objects as a whole, so racing threads just compute the same value twice.
+ * <p>
+ * The Program of the MACHINE backend decides at compile time which calls go to built-in functions, so it's compiled
+ * again when a built-in function is registered (the tree walker binds its calls again one by one instead). Running
+ * executions keep the Program they started with.
+ */
+public final class CompiledScript {
+    private final Ast root;
+    private final int frameSize;
+    private final Map<String, StructLayout> layouts;
+    private final Map<String, UserFunction> functions;
+    private final UserFunction[] functionTable;
+    private final Map<String, FunctionHandler> handlers;
+    private final Linker linker;
+    private final int linkVersion;
+    private final boolean memoization;
+    private final int memoCacheSize;
+
+    /* MACHINE backend only: the structs, to compile the program again */
+    private final Map<String, Ast> structs;
+    private volatile Program program;
+    private volatile int programVersion;
+
+    /**
+     * Prepares a parsed file: optimizes and resolves its Ast, binds its calls and, for the MACHINE backend,
+     * compiles it.
+     *
+     * @param parsed        The output of the parser (owned by the new script).
+     * @param handlers      The built-in functions.
+     * @param linker        The Linker of the built-in functions.
+     * @param backend       The backend that runs the script.
+     * @param memoization   True to cache the results of pure functions.
+     * @param memoCacheSize The maximum number of results cached per function.
+     */
+    CompiledScript(ParsedFile parsed, Map<String, FunctionHandler> handlers, Linker linker, Backend backend,
+                   boolean memoization, int memoCacheSize) {
+        this.root = parsed.getRoot();
+        this.handlers = handlers;
+        this.linker = linker;
+        this.memoization = memoization;
+        this.memoCacheSize = memoCacheSize;
+
+        HashMap<String, Ast> structs = parsed.getStructs();
+        HashMap<String, StructLayout> layouts = HashMap.newHashMap(structs.size());
+        structs.forEach((name, declaration) -> layouts.put(name, StructLayout.of(name, declaration)));
+        this.layouts = Collections.unmodifiableMap(layouts);
+
+        HashMap<String, UserFunction> functions = parsed.getFunctions();
+        this.functions = Collections.unmodifiableMap(functions);
+        this.functionTable = functions.values().toArray(new UserFunction[0]);
+        for (int i = 0; i < functionTable.length; i++) {
+            functionTable[i].setIndex(i);
+        }
+
+        Optimizer.optimize(root);
+        for (UserFunction func : functionTable) {
+            Optimizer.optimize(func.getBody());
+        }
+
+        this.frameSize = Resolver.resolveProgram(root);
+        for (UserFunction func : functionTable) {
+            Resolver.resolveFunction(func);
+        }
+
+        // Read the version first: a concurrent registration then makes the script outdated, never wrong
+        this.linkVersion = linker.getVersion();
+        linker.link(root, functions);
+        PurityAnalyzer.analyze(functions, handlers.keySet());
+
+        if (backend == Backend.MACHINE) {
+            this.structs = structs;
+            this.program = new Compiler(structs, functions).compile(root, frameSize);
+            this.programVersion = linkVersion;
+        } else {
+            this.structs = null;
+        }
+    }
+
+    /**
+     * Gets the Program of the MACHINE backend, compiling it again if a built-in function was registered since.
+     *
+     * @return The current program.
+     */
+    private Program program() {
+        if (programVersion == linker.getVersion()) {
+            return program;
+        }
+
+        synchronized (this) {
+            // Read the version first, as in the constructor
+            int version = linker.getVersion();
+
+            if (programVersion != version) {
+                linker.link(root, functions);
+                program = new Compiler(structs, functions).compile(root, frameSize);
+                programVersion = version;
+            }
+
+            return program;
+        }
+    }
+
+    /**
+     * Runs the script. Safe to call from many threads at once, as long as each one uses its own Context.
+     * The output of the context is flushed when the script ends, even if it fails.
+     *
+     * @param context The context of the execution.
+     * @throws ExecutionAbortedException If the execution exceeds the Budget of the context, or it's cancelled.
+     */
+    public void execute(Context context) {
+        if (context.getBudget() != null) {
+            context.getBudget().start();
+        }
+
+        try {
+            if (structs != null) {
+                new Machine(program(), handlers, context, ctx -> ctx.getMemoCaches(this)).execute();
+            } else {
+                new Interpreter(this, context, context.getMemoCaches(this)).run();
+            }
+        } finally {
+            context.getOut().flush();
+        }
+    }
+
+    /**
+     * Tests if no built-in function was registered since the script was linked.
+     *
+     * @return True if the bindings and purity computed when compiling are still valid.
+     */
+    boolean isLinkCurrent() {
+        return linker.getVersion() == linkVersion;
+    }
+
+    /**
+     * Creates the caches of results of a Context for this script.
+     *
+     * @return The caches, by function index (null for the functions that are not memoized).
+     */
+    MemoCache[] createMemoCaches() {
+        var caches = new MemoCache[functionTable.length];
+
+        for (UserFunction func : functionTable) {
+            if (memoization && func.isPure()) {
+                caches[func.getIndex()] = new MemoCache(memoCacheSize);
+            }
+        }
+
+        return caches;
+    }
+
+    /**
+     * Finds the index of a function.
+     *
+     * @param name The name of the function.
+     * @return The index, or -1 if the script doesn't declare the function.
+     */
+    int indexOf(String name) {
+        UserFunction func = functions.get(name);
+        return func != null ? func.getIndex() : -1;
+    }
+
+    Ast getRoot() {
+        return root;
+    }
+
+    int getFrameSize() {
+        return frameSize;
+    }
+
+    StructLayout getLayout(String name) {
+        return layouts.get(name);
+    }
+
+    Map<String, UserFunction> getFunctions() {
+        return functions;
+    }
+
+    int getFunctionCount() {
+        return functionTable.length;
+    }
+
+    Linker getLinker() {
+        return linker;
+    }
+}
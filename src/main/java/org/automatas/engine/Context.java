@@ -0,0 +1,172 @@
+package org.automatas.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+
+/**
+ * The state owned by the executions of scripts: the I/O streams used by the built-in functions and the caches of
+ * results of pure functions. A Context can run many scripts, one at a time; concurrent executions need a Context
+ * each.
+ */
+public final class Context {
+    private final Input in;
+    private final Output out;
+    private Profiler profiler;
+    private SamplingProfiler samplingProfiler;
+    private AllocationProfiler allocationProfiler;
+    private Budget budget;
+
+    private final IdentityHashMap<CompiledScript, MemoCache[]> memoCaches = new IdentityHashMap<>();
+
+    /**
+     * Creates a context that uses the standard input and output of the process.
+     */
+    public Context() {
+        this(Input.standard(), new Output(System.out, Output.FlushPolicy.byDefault(), Output.DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates a context that writes to a stream through a buffer flushed when it's full.
+     *
+     * @param in  The stream read by input() and lines().
+     * @param out The stream written by print() and printf().
+     */
+    public Context(InputStream in, OutputStream out) {
+        this(Input.of(in), new Output(out, Output.FlushPolicy.SIZE, Output.DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Context constructor.
+     *
+     * @param in  The input read by input() and lines().
+     * @param out The output written by print() and printf().
+     */
+    public Context(Input in, Output out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Creates the context of a parallel foreach worker. It reads the input of this context, and gets its own caches
+     * of results (they're not thread-safe).
+     *
+     * @param out The output written by the worker.
+     * @return The new context.
+     */
+    Context fork(Output out) {
+        var context = new Context(in, out);
+        context.profiler = profiler;
+        context.samplingProfiler = samplingProfiler;
+        context.allocationProfiler = allocationProfiler;
+        context.budget = budget;
+
+        return context;
+    }
+
+    public Input getIn() {
+        return in;
+    }
+
+    public Output getOut() {
+        return out;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Profiles the executions of the tree walker in this context (the MACHINE backend ignores the profiler).
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public SamplingProfiler getSamplingProfiler() {
+        return samplingProfiler;
+    }
+
+    /**
+     * Keeps the call stacks of the executions in this context, for a sampling profiler (with both backends).
+     *
+     * @param samplingProfiler The profiler (started by the caller), or null to stop keeping them.
+     */
+    public void setSamplingProfiler(SamplingProfiler samplingProfiler) {
+        this.samplingProfiler = samplingProfiler;
+    }
+
+    public AllocationProfiler getAllocationProfiler() {
+        return allocationProfiler;
+    }
+
+    /**
+     * Counts the objects allocated by the executions in this context (with both backends).
+     *
+     * @param allocationProfiler The profiler, or null to stop counting.
+     */
+    public void setAllocationProfiler(AllocationProfiler allocationProfiler) {
+        this.allocationProfiler = allocationProfiler;
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Limits the next execution in this context (and its tasks and parallel loops), and lets it be cancelled.
+     * A budget is meant for a single execution: its time starts when the execution does.
+     *
+     * @param budget The budget, or null for no limits.
+     */
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Reads a line of the input. On a terminal, the pending output (eg: a prompt) is written first.
+     *
+     * @return The line (without the line terminator), or null at the end of the input.
+     * @throws IOException If the stream cannot be read.
+     */
+    public String readLine() throws IOException {
+        // With the other policies the output is not a terminal, and flushing for every line would defeat the buffer
+        if (out.getPolicy() == Output.FlushPolicy.LINE) {
+            out.flush();
+        }
+
+        return in.readLine();
+    }
+
+    /**
+     * Gets the cache of results of a function, filled by the executions of a script in this context.
+     *
+     * @param script   The script that declares the function.
+     * @param function The name of the function.
+     * @return The cache, or null if calls to the function are not memoized.
+     */
+    public MemoCache getMemoCache(CompiledScript script, String function) {
+        int index = script.indexOf(function);
+        MemoCache[] caches = memoCaches.get(script);
+
+        return index >= 0 && caches != null ? caches[index] : null;
+    }
+
+    /**
+     * Gets the caches of results of the functions of a script, by function index. Scripts linked before a built-in
+     * function was registered get no caches, since the purity of their functions may have changed.
+     *
+     * @param script The script to run.
+     * @return The caches (null entries for the functions that are not memoized).
+     */
+    MemoCache[] getMemoCaches(CompiledScript script) {
+        if (!script.isLinkCurrent()) {
+            return new MemoCache[script.getFunctionCount()];
+        }
+
+        return memoCaches.computeIfAbsent(script, CompiledScript::createMemoCaches);
+    }
+}
@@ -0,0 +1,30 @@
+package org.automatas.engine;
+
+/**
+ * The error raised when an execution exceeds its Budget, or when the Budget is cancelled. Unlike the other errors
+ * of a script, it's never wrapped: awaiting a task or running a parallel loop rethrows it as it is.
+ */
+public final class ExecutionAbortedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limit that stopped the execution.
+     */
+    public enum Reason {
+        STEPS,
+        TIMEOUT,
+        CALL_DEPTH,
+        CANCELLED
+    }
+
+    private final Reason reason;
+
+    ExecutionAbortedException(Reason reason, String message) {
+        super("Fatal Error: " + message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -5,1025 +5,367 @@ import java_cup.runtime.Symbol;
 import org.automatas.language.Lexer;
 import org.automatas.language.Parser;
 
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class Executor {
-    private final ScopeManager scope = new ScopeManager();
-    private HashMap<String, Ast> structs;
-    private HashMap<String, UserFunction> userFunctions;
-    private final HashMap<String, FunctionHandler> handlers;
+    private final ConcurrentHashMap<String, FunctionHandler> handlers;
+    private final Linker linker;
+    private Backend backend = Backend.TREE_WALKER;
+    private boolean memoization = true;
+    private int memoCacheSize = MemoCache.DEFAULT_CAPACITY;
+    private ParseCache parseCache;
+    private Output.FlushPolicy flushPolicy;
+    private int outputBufferSize = Output.DEFAULT_BUFFER_SIZE;
+    private Path outputFile;
+    private boolean profiling;
+    private Path samplingProfile;
+    private Duration samplingInterval = SamplingProfiler.DEFAULT_INTERVAL;
+    private boolean allocationAccounting;
+    private long maxSteps;
+    private Duration timeout;
+    private int maxCallDepth;
+
+    /* The last file run by executeFile() */
+    private CompiledScript lastScript;
+    private Context lastContext;
+    private Profiler lastProfiler;
+    private SamplingProfiler lastSamplingProfiler;
+    private AllocationProfiler lastAllocationProfiler;
+
+    /* The budget of the file being run by executeFile(), for cancel() */
+    private volatile Budget runningBudget;
 
     public Executor() {
-        handlers = new HashMap<>();
+        handlers = new ConcurrentHashMap<>();
         BuiltInFunctions.loadBuiltIns(handlers);
-    }
-
+        linker = new Linker(handlers);
+    }
+
+    /**
+     * Adds (or replaces) a built-in function. Built-in functions take precedence over user functions.
+     * <p>
+     * Scripts compiled before bind their calls again, and stop memoizing calls (the new function may shadow a
+     * user function, which changes what's pure).
+     *
+     * @param name    The name of the function.
+     * @param handler The implementation of the function.
+     */
+    public void registerBuiltIn(String name, FunctionHandler handler) {
+        linker.registerBuiltIn(name, handler);
+    }
+
+    /**
+     * Sets the strategy used to run the parsed programs.
+     *
+     * @param backend The backend to use.
+     */
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Enables or disables the memoization of calls to pure functions (enabled by default).
+     *
+     * @param memoization True to cache the results of pure functions; false to always run them.
+     */
+    public void setMemoization(boolean memoization) {
+        this.memoization = memoization;
+    }
+
+    /**
+     * Sets the maximum number of results cached per function.
+     *
+     * @param memoCacheSize The capacity of each cache.
+     */
+    public void setMemoCacheSize(int memoCacheSize) {
+        this.memoCacheSize = memoCacheSize;
+    }
+
+    /**
+     * Gets the cache of results of a function of the last executed file (eg: to read its hit/miss statistics).
+     *
+     * @param name The name of the function.
+     * @return The cache, or null if the function is not memoized.
+     */
+    public MemoCache getMemoCache(String name) {
+        return lastScript != null ? lastContext.getMemoCache(lastScript, name) : null;
+    }
+
+    /**
+     * Enables the cache of parsed files: running a source that didn't change loads its Ast from the cache instead
+     * of parsing it again (disabled by default).
+     *
+     * @param directory The directory of the cache files, or null to disable the cache.
+     */
+    public void setCacheDirectory(Path directory) {
+        parseCache = directory != null ? new ParseCache(directory) : null;
+    }
+
+    /**
+     * Sets when executeFile() writes the output of the script. By default, the output of a terminal is written
+     * after every line, and any other output when the buffer is full.
+     *
+     * @param flushPolicy The policy, or null to use the default.
+     */
+    public void setFlushPolicy(Output.FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Sets the size of the output buffer of executeFile().
+     *
+     * @param outputBufferSize The size, in bytes.
+     */
+    public void setOutputBufferSize(int outputBufferSize) {
+        this.outputBufferSize = outputBufferSize;
+    }
+
+    /**
+     * Redirects the output of executeFile() to a file, which is replaced.
+     *
+     * @param outputFile The path of the file, or null to write to the standard output.
+     */
+    public void setOutputFile(Path outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Enables the profiling of executeFile() (disabled by default): the script runs with the tree walker, and a
+     * report of the functions, the lines and the kinds of nodes that took the most time is printed to the standard
+     * error when it ends.
+     *
+     * @param profiling True to profile the executions.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Gets the measures of the last file executed with profiling enabled.
+     *
+     * @return The profiler, or null if no file was profiled.
+     */
+    public Profiler getProfiler() {
+        return lastProfiler;
+    }
+
+    /**
+     * Enables the sampling profiler for executeFile() (disabled by default): the call stacks of the user functions
+     * are sampled while the script runs, and written in the collapsed-stack format of flame graph tools when it ends.
+     * It runs with both backends, at a fraction of the cost of setProfiling().
+     *
+     * @param samplingProfile The file of the samples (replaced), or null to disable the profiler.
+     */
+    public void setSamplingProfile(Path samplingProfile) {
+        this.samplingProfile = samplingProfile;
+    }
+
+    /**
+     * Sets the time between the samples of the sampling profiler (10 milliseconds by default).
+     *
+     * @param samplingInterval The interval.
+     */
+    public void setSamplingInterval(Duration samplingInterval) {
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Gets the samples of the last file executed with the sampling profiler enabled.
+     *
+     * @return The profiler, or null if no file was sampled.
+     */
+    public SamplingProfiler getSamplingProfiler() {
+        return lastSamplingProfiler;
+    }
+
+    /**
+     * Enables the allocation accounting of executeFile() (disabled by default): the values, nodes, frames and
+     * references created by the script are counted per function and per line, and a report is printed to the
+     * standard error when the script ends. It runs with both backends (the MACHINE backend has no lines).
+     *
+     * @param allocationAccounting True to count the allocations of the executions.
+     */
+    public void setAllocationAccounting(boolean allocationAccounting) {
+        this.allocationAccounting = allocationAccounting;
+    }
+
+    /**
+     * Gets the allocations of the last file executed with allocation accounting enabled.
+     *
+     * @return The profiler, or null if no file was accounted.
+     */
+    public AllocationProfiler getAllocationProfiler() {
+        return lastAllocationProfiler;
+    }
+
+    /**
+     * Limits the number of steps (loop iterations and calls to user functions) of executeFile(). See Budget.
+     *
+     * @param maxSteps The maximum number of steps, or 0 for no limit (the default).
+     */
+    public void setMaxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * Limits the run time of executeFile().
+     *
+     * @param timeout The maximum time, or null for no limit (the default).
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Limits the number of nested calls to user functions of executeFile().
+     *
+     * @param maxCallDepth The maximum depth, or 0 for no limit (the default).
+     */
+    public void setMaxCallDepth(int maxCallDepth) {
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    /**
+     * Stops the file being run by executeFile() (from another thread), with an ExecutionAbortedException.
+     * Executions started with CompiledScript.execute() are cancelled through the Budget of their Context.
+     */
+    public void cancel() {
+        Budget budget = runningBudget;
+        if (budget != null) {
+            budget.cancel();
+        }
+    }
+
+    /**
+     * Parses and prepares a program, so it can be executed many times (and by many threads at once).
+     *
+     * @param source The source code of the program.
+     * @return The compiled script.
+     */
+    public CompiledScript compile(String source) {
+        return compile(SourceFile.of(source), backend);
+    }
+
+    /**
+     * Parses and prepares a source file, so it can be executed many times (and by many threads at once).
+     *
+     * @param filename The path of the source file.
+     * @return The compiled script.
+     * @throws IOException If the file cannot be read.
+     */
+    public CompiledScript compileFile(String filename) throws IOException {
+        return compile(SourceFile.load(Path.of(filename)), backend);
+    }
+
+    /**
+     * Runs a source file with the standard input of the process (shared by all the executions). The output goes to the standard output, or to
+     * the file set with setOutputFile().
+     *
+     * @param filename The path of the source file.
+     */
     public void executeFile(String filename) {
-        try (var reader = new FileReader(filename)) {
-            var factory = new ComplexSymbolFactory();
-            var lexer = new Lexer(reader, factory);
-            var parser = new Parser(lexer, factory);
+        Output output = null;
+        lastProfiler = profiling ? new Profiler() : null;
+        lastSamplingProfiler = samplingProfile != null ? new SamplingProfiler(samplingInterval) : null;
+        lastAllocationProfiler = allocationAccounting ? new AllocationProfiler() : null;
+
+        try {
+            // The profiler instruments the nodes of the tree walker
+            lastScript = compile(SourceFile.load(Path.of(filename)), profiling ? Backend.TREE_WALKER : backend);
+
+            Output.FlushPolicy policy = flushPolicy != null ? flushPolicy : Output.FlushPolicy.byDefault();
+            output = outputFile != null
+                    ? Output.toFile(outputFile, policy, outputBufferSize)
+                    : new Output(System.out, policy, outputBufferSize);
+
+            lastContext = new Context(Input.standard(), output);
+            lastContext.setProfiler(lastProfiler);
+            lastContext.setSamplingProfiler(lastSamplingProfiler);
+            lastContext.setAllocationProfiler(lastAllocationProfiler);
+
+            // Always metered, so it can be cancelled
+            runningBudget = new Budget(maxSteps, timeout, maxCallDepth);
+            lastContext.setBudget(runningBudget);
+
+            if (lastSamplingProfiler != null) {
+                lastSamplingProfiler.start();
+            }
 
-            Symbol result = parser.parse();
-            Ast root = (Ast) result.value;
-            structs = parser.getDeclaredStructs();
-            userFunctions = parser.getDeclaredFunctions();
-            execute(root, new Node());
+            lastScript.execute(lastContext);
         } catch (Exception e) {
             e.printStackTrace();
-        }
-    }
-
-    private void fatalError(String fmt, Object... args) {
-        String message = "Fatal Error: " + fmt.formatted(args);
-        throw new RuntimeException(message);
-    }
-
-    private void execute(Ast ast, Node result) {
-        switch (ast.kind) {
-            case AST_STATEMENT_LIST:
-                executeStatementList(ast, result);
-                break;
-            case AST_SCALAR:
-                executeScalar(ast, result);
-                break;
-            case AST_ARRAY:
-                executeArray(ast, result);
-                break;
-            case AST_DECLARATION:
-                executeVarDeclaration(ast, result);
-                break;
-            case AST_ASSIGN:
-                executeVarAssign(ast, result);
-                break;
-            case AST_IDENTIFIER:
-                executeVarFetch(ast, result);
-                break;
-            case AST_ARRAY_ACCESS:
-                executeArrayAccess(ast, result);
-                break;
-            case AST_STRUCT_ACCESS:
-                executeStructAccess(ast, result);
-                break;
-            case AST_CALL:
-                executeCall(ast, result);
-                break;
-            case AST_RETURN:
-                executeReturn(ast, result);
-                break;
-            case AST_AND:
-                executeLogicAnd(ast, result);
-                break;
-            case AST_OR:
-                executeLogicOr(ast, result);
-                break;
-            case AST_EQUALS:
-            case AST_NOT_EQUALS:
-            case AST_SMALLER:
-            case AST_SMALLER_OR_EQUAL:
-            case AST_GREATER:
-            case AST_GREATER_OR_EQUAL:
-                executeScalarComparison(ast, result);
-                break;
-            case AST_BOOL_NOT:
-                executeBoolNot(ast, result);
-                break;
-            case AST_ADD:
-            case AST_SUBTRACT:
-            case AST_MULTIPLY:
-            case AST_POW:
-            case AST_DIVIDE:
-            case AST_MODULO:
-                executeScalarOperations(ast, result);
-                break;
-            case AST_POST_INC:
-            case AST_POST_DEC:
-            case AST_PRE_INC:
-            case AST_PRE_DEC:
-                executeDecInc(ast, result);
-                break;
-            case AST_LEN:
-                executeLen(ast, result);
-                break;
-            case AST_TYPEOF:
-                executeTypeof(ast, result);
-                break;
-            case AST_AS:
-                executeTypeCast(ast, result);
-                break;
-            case AST_IS:
-                executeTypeCheck(ast, result);
-                break;
-            case AST_NEW:
-                executeNewInstance(ast, result);
-                break;
-            case AST_UNSET:
-                executeUnset(ast, result);
-                break;
-            case AST_IF:
-                executeIfStatement(ast, result);
-                break;
-            case AST_IF_ELSE:
-                executeIfElseStatement(ast, result);
-                break;
-            case AST_FOR:
-                executeForStatement(ast, result);
-                break;
-            case AST_FOREACH:
-                executeForeachStatement(ast, result);
-                break;
-            case AST_DO_WHILE:
-                executeDoWhileStatement(ast, result);
-                break;
-            case AST_WHILE:
-                executeWhileStatement(ast, result);
-                break;
-        }
-    }
+        } finally {
+            runningBudget = null;
 
-    private void executeStatementList(Ast ast, Node result) {
-        assert ast.kind == AstKind.AST_STATEMENT_LIST;
-
-        scope.beginBlock();
-
-        for (Ast statement : ast.child) {
-            var node = new Node();
-            execute(statement, node);
-
-            if (node.mustReturn()) {
-                node.propagateTo(result);
-                break;
+            if (output != null) {
+                output.close();
             }
-        }
-
-        scope.endBlock();
-    }
-
-    private void executeScalar(Ast ast, Node result) {
-        assert ast.value != null;
-        assert ast.child.length == 0;
-
-        Scalar value = Scalar.make(ast.value, ast.type);
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeArray(Ast ast, Node result) {
-        assert ast.kind == AstKind.AST_ARRAY;
-
-        List<Scalar> values = new ArrayList<>(ast.child.length);
-        for (Ast child : ast.child) {
-            var node = new Node();
-            execute(child, node);
-            values.add(node.getValue());
-        }
-
-        Scalar array = Scalar.makeArray(values);
-        result.setType(NodeType.CONSTANT);
-        result.setValue(array);
-    }
-
-    private void executeTypeof(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast expr = ast.child[0];
-
-        var node = new Node();
-        execute(expr, node);
-
-        if (node.getType() != NodeType.CONSTANT) {
-            fatalError("Cannot get type of non-scalar expression.");
-        }
-
-        Scalar typeName = Scalar.makeString(node.getValue().getType().toString());
-        result.setType(NodeType.CONSTANT);
-        result.setValue(typeName);
-    }
-
-    private void executeTypeCast(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast expr = ast.child[0];
-        Ast type = ast.child[1];
-
-        var node = new Node();
-        execute(expr, node);
-
-        if (node.getType() != NodeType.CONSTANT) {
-            fatalError("Cannot type cast non-scalar expression.");
-        }
-
-        String typeName = type.value.toString();
-        ScalarType target = ScalarType.getType(typeName);
-
-        if (target == null) {
-            fatalError("Cannot cast to unknown type '%s'.", type.value);
-            return;
-        }
-
-        Scalar original = node.getValue();
-        Scalar casted = switch (target) {
-            case ARRAY -> Scalar.makeArray(original.toList());
-            case BOOL -> Scalar.makeBool(original.toBoolean());
-            case FLOAT -> Scalar.makeFloat(original.toDouble());
-            case INT -> Scalar.makeInt(original.toLong());
-            case STRING -> Scalar.makeString(original.toString());
-            case OBJECT -> null;
-        };
-
-        if (casted == null) {
-            fatalError("Cannot cast to object.");
-        }
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(casted);
-    }
-
-    private void executeTypeCheck(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast expr = ast.child[0];
-        Ast type = ast.child[1];
-
-        var node = new Node();
-        execute(expr, node);
-
-        if (node.getType() != NodeType.CONSTANT) {
-            fatalError("Cannot type cast non-scalar expression.");
-        }
-
-        String typeName = type.value.toString();
-        ScalarType target = ScalarType.getType(typeName);
-
-        if (target == null) {
-            fatalError("Unknown type '%s'.", type.value);
-            return;
-        }
-
-        Scalar value = node.getValue();
-        Scalar isSameType = Scalar.makeBool(value.getType() == target);
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(isSameType);
-    }
-
-    private void executeNewInstance(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast identifier = ast.child[0];
-        String name = identifier.value.toString();
-
-        if (!structs.containsKey(name)) {
-            fatalError("Cannot instantiate undefined struct '%s'.", name);
-        }
-
-        Ast[] statementList = structs.get(name).child;
-        HashMap<String, Scalar> members = HashMap.newHashMap(statementList.length);
-
-        for (Ast mem : statementList) {
-            String memName = mem.value.toString();
-            members.put(memName, null);
-        }
-
-        Scalar object = Scalar.makeObject(name, members);
-        result.setType(NodeType.CONSTANT);
-        result.setValue(object);
-    }
-
-    private void executeVarDeclaration(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast var = ast.child[0];
-        Ast expr = ast.child[1];
-
-        if (var.kind != AstKind.AST_IDENTIFIER) {
-            fatalError("Illegal array access on left side of var declaration.");
-        }
-
-        String name = var.value.toString();
-        if (scope.hasLocalSymbol(name)) {
-            fatalError("'%s' is already defined.", name);
-        }
-
-        var exprNode = new Node();
-        execute(expr, exprNode);
-
-        if (exprNode.getType() != NodeType.CONSTANT) {
-            fatalError("Expression of type '%s' cannot be assigned to variable '%s'.", expr.kind, name);
-        }
-
-        Scalar value = exprNode.getValue();
-        scope.addSymbol(name, value);
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeVarAssign(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast var = ast.child[0];
-        Ast expr = ast.child[1];
 
-        if (var.kind == AstKind.AST_ARRAY_ACCESS) {
-            executeArrayAssign(ast, result);
-            return;
-        }
-
-        if (var.kind == AstKind.AST_STRUCT_ACCESS) {
-            executeStructAssign(ast, result);
-            return;
-        }
-
-        String name = var.value.toString();
-        if (!scope.hasSymbol(name)) {
-            fatalError("undefined variable '%s'.", name);
-        }
-
-        var exprNode = new Node();
-        execute(expr, exprNode);
-
-        if (exprNode.getType() != NodeType.CONSTANT) {
-            fatalError("Expression of type '%s' cannot be assigned to variable '%s'.", expr.kind, name);
-        }
-
-        Scalar value = exprNode.getValue();
-        scope.setSymbol(name, value);
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeArrayAssign(Ast ast, Node result) {
-        assert ast.child.length == 2;
-        assert ast.child[0].kind == AstKind.AST_ARRAY_ACCESS;
-
-        Ast var = ast.child[0];
-        Ast expr = ast.child[1];
-
-        var varNode = new Node();
-        execute(var, varNode);
-
-        if (!varNode.hasReference()) {
-            fatalError("Cannot assign to non-array value using array access syntax.");
-        }
-
-        var exprNode = new Node();
-        execute(expr, exprNode);
-
-        if (exprNode.getType() != NodeType.CONSTANT) {
-            fatalError("Expression of type '%s' cannot be assigned as value.", expr.kind);
-        }
-
-        Reference reference = varNode.getReference();
-        Scalar value = exprNode.getValue();
-        reference.setValue(value);
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeStructAssign(Ast ast, Node result) {
-        assert ast.child.length == 2;
-        assert ast.child[0].kind == AstKind.AST_STRUCT_ACCESS;
-
-        Ast var = ast.child[0];
-        Ast expr = ast.child[1];
-
-        var varNode = new Node();
-        execute(var, varNode);
-
-        if (!varNode.hasReference()) {
-            fatalError("Unexpected error: unable to compile struct access operation.");
-        }
-
-        var exprNode = new Node();
-        execute(expr, exprNode);
-
-        if (exprNode.getType() != NodeType.CONSTANT) {
-            fatalError("Expression of type '%s' cannot be assigned as value.", expr.kind);
-        }
-
-        Reference reference = varNode.getReference();
-        Scalar value = exprNode.getValue();
-        reference.setValue(value);
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeVarFetch(Ast ast, Node result) {
-        assert ast.child.length == 0;
-
-        String name = ast.value.toString();
-        if (!scope.hasSymbol(name)) {
-            fatalError("undefined variable '%s'.", name);
-        }
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(scope.getSymbol(name));
-    }
-
-    private void executeArrayAccess(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast var = ast.child[0];
-        Ast idx = ast.child[1];
-
-        var varNode = new Node();
-        execute(var, varNode);
-        Scalar array = varNode.getValue();
-
-        if (!array.isArray()) {
-            fatalError("Cannot use array access on non array value.");
-        }
-
-        if (idx == null) {
-            // Add new "empty" space and return (expecting "arr[] = expr")
-            List<Scalar> list = array.toList();
-            list.add(null);
-
-            Scalar newIndex = Scalar.makeInt(list.size() - 1);
-
-            result.setType(NodeType.NONE);
-            result.setValue(null);
-            result.setReference(new ArrayReference(array, newIndex));
-            return;
-        }
-
-        // Existing index within array (expecting "arr[index]")
-        var idxNode = new Node();
-        execute(idx, idxNode);
-        Scalar index = idxNode.getValue();
-
-        var reference = new ArrayReference(array, index);
-        Scalar value = reference.getValue();
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-        result.setReference(reference);
-    }
-
-    private void executeStructAccess(Ast ast, Node result) {
-        assert ast.child.length == 2;
-        assert ast.child[1].kind == AstKind.AST_IDENTIFIER;
-
-        Ast var = ast.child[0];
-        Ast mem = ast.child[1];
-
-        var varNode = new Node();
-        execute(var, varNode);
-
-        Scalar object = varNode.getValue();
-        String member = mem.value.toString();
-
-        if (!object.isObject()) {
-            fatalError("Attempt to assign property '%s' on non-object value.", member);
-        }
-
-        StructInstance instance = object.toObject();
-        assert instance != null;
-
-        if (!instance.hasProperty(member)) {
-            fatalError("Undefined property %s::%s.", instance.getStructName(), member);
-        }
-
-        var reference = new StructReference(instance, member);
-        Scalar value = reference.getValue();
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-        result.setReference(reference);
-    }
-
-    private void executeCall(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast funcName = ast.child[0];
-        Ast funcArgs = ast.child[1];
-
-        String name = funcName.value.toString();
-
-        var arguments = new Node();
-        execute(funcArgs, arguments);
-
-        if (arguments.getType() != NodeType.CONSTANT) {
-            fatalError("Expression of type '%s' is an invalid argument list.", funcArgs.kind);
-        }
-
-        List<Scalar> argList = arguments.getValue().toList();
-        var callResult = new Node();
-
-        if (handlers.containsKey(name)) {
-            FunctionHandler handler = handlers.get(name);
-            handler.call(callResult, argList);
-        } else if (userFunctions.containsKey(name)) {
-            UserFunction func = userFunctions.get(name);
-
-            // Validate argument count
-            String[] params = func.getParameters();
-            if (argList.size() < params.length) {
-                fatalError("Too few arguments: %s() expects %d arguments, %d provided.", name, params.length, argList.size());
-                return;
+            if (lastProfiler != null) {
+                lastProfiler.printReport(System.err);
             }
 
-            // Create stack frame for the function
-            scope.push();
-
-            // Pass arguments
-            for (int i = 0; i < params.length; i++) {
-                scope.addSymbol(params[i], argList.get(i));
+            if (lastSamplingProfiler != null) {
+                writeSamples(lastSamplingProfiler);
             }
 
-            // Do call
-            Ast body = func.getBody();
-            execute(body, callResult);
-
-            // Restore stack
-            scope.pop();
-        } else {
-            fatalError("Call to undefined function '%s'.", name);
-            return;
-        }
-
-        if (callResult.hasError()) {
-            String error = callResult.getValue().toString();
-            fatalError(error);
-            return;
-        }
-
-        result.setType(NodeType.NONE);
-        result.setValue(null);
-
-        if (callResult.getType() == NodeType.RETURN && callResult.hasValue()) {
-            result.setType(NodeType.CONSTANT);
-            result.setValue(callResult.getValue());
-        }
-    }
-
-    private void executeReturn(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast expr = ast.child[0];
-        Scalar value = null;
-
-        /* TODO: Add callstack validation logic */
-
-        if (expr != null) {
-            var exprNode = new Node();
-            execute(expr, exprNode);
-
-            if (exprNode.getType() != NodeType.CONSTANT) {
-                fatalError("Cannot return non-constant expression %s.", expr.kind);
+            if (lastAllocationProfiler != null) {
+                lastAllocationProfiler.printReport(System.err);
             }
-
-            value = exprNode.getValue();
-        }
-
-        result.fnReturn(value);
-    }
-
-    private void executeLogicAnd(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast lhs = ast.child[0];
-        Ast rhs = ast.child[1];
-
-        var lhsNode = new Node();
-        execute(lhs, lhsNode);
-
-        if (lhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in left-hand side operand.");
-        }
-
-        if (!lhsNode.getValue().toBoolean()) {
-            // false && ??
-            result.setType(NodeType.CONSTANT);
-            result.setValue(Scalar.makeBool(false));
-            return;
-        }
-
-        var rhsNode = new Node();
-        execute(rhs, rhsNode);
-
-        if (rhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in right-hand side operand.");
-        }
-
-        Scalar value = Scalar.makeBool(rhsNode.getValue().toBoolean());
-
-        // true && ??
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeLogicOr(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast lhs = ast.child[0];
-        Ast rhs = ast.child[1];
-
-        var lhsNode = new Node();
-        execute(lhs, lhsNode);
-
-        if (lhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in left-hand side operand.");
-        }
-
-        if (lhsNode.getValue().toBoolean()) {
-            // true || ??
-            result.setType(NodeType.CONSTANT);
-            result.setValue(Scalar.makeBool(true));
-            return;
-        }
-
-        var rhsNode = new Node();
-        execute(rhs, rhsNode);
-
-        if (rhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in right-hand side operand.");
-        }
-
-        Scalar value = Scalar.makeBool(rhsNode.getValue().toBoolean());
-
-        // false || ??
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeScalarComparison(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast lhs = ast.child[0];
-        Ast rhs = ast.child[1];
-
-        var lhsNode = new Node();
-        execute(lhs, lhsNode);
-
-        if (lhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in left-hand side operand.");
-        }
-
-        var rhsNode = new Node();
-        execute(rhs, rhsNode);
-
-        if (rhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in right-hand side operand.");
-        }
-
-        Scalar a = lhsNode.getValue();
-        Scalar b = rhsNode.getValue();
-
-        boolean order = switch (ast.kind) {
-            case AST_EQUALS -> a.equals(b);
-            case AST_NOT_EQUALS -> !a.equals(b);
-            case AST_SMALLER -> a.compareTo(b) < 0;
-            case AST_SMALLER_OR_EQUAL -> a.compareTo(b) <= 0;
-            case AST_GREATER -> a.compareTo(b) > 0;
-            case AST_GREATER_OR_EQUAL -> a.compareTo(b) >= 0;
-            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
-        };
-
-        Scalar value = Scalar.makeBool(order);
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeBoolNot(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast expr = ast.child[0];
-
-        var node = new Node();
-        execute(expr, node);
-
-        if (node.getType() != NodeType.CONSTANT) {
-            fatalError("Cannot negate non-boolean expression.");
-        }
-
-        boolean original = node.getValue().toBoolean();
-        Scalar negated = Scalar.makeBool(!original);
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(negated);
-    }
-
-    private void executeScalarOperations(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast lhs = ast.child[0];
-        Ast rhs = ast.child[1];
-
-        var lhsNode = new Node();
-        execute(lhs, lhsNode);
-
-        if (lhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in left-hand side operand.");
-        }
-
-        var rhsNode = new Node();
-        execute(rhs, rhsNode);
-
-        if (rhsNode.getType() != NodeType.CONSTANT) {
-            fatalError("Invalid expression in right-hand side operand.");
-        }
-
-        Scalar a = lhsNode.getValue();
-        Scalar b = rhsNode.getValue();
-
-        Scalar value = switch (ast.kind) {
-            case AST_ADD -> ScalarOperation.add(a, b);
-            case AST_SUBTRACT -> ScalarOperation.subtract(a, b);
-            case AST_MULTIPLY -> ScalarOperation.multiply(a, b);
-            case AST_POW -> ScalarOperation.pow(a, b);
-            case AST_DIVIDE -> ScalarOperation.divide(a, b);
-            case AST_MODULO -> ScalarOperation.modulo(a, b);
-            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
-        };
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(value);
-    }
-
-    private void executeDecInc(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast var = ast.child[0];
-
-        var varNode = new Node();
-        execute(var, varNode);
-
-        Scalar original = varNode.getValue();
-
-        if (original.isArray() || original.isString() || original.isObject()) {
-            fatalError("Cannot increment a value of type '%s'.", original.getType());
-        }
-
-        Scalar modified = switch (ast.kind) {
-            case AST_POST_DEC, AST_PRE_DEC -> ScalarOperation.subtract(original, Scalar.makeInt(1));
-            case AST_POST_INC, AST_PRE_INC -> ScalarOperation.add(original, Scalar.makeInt(1));
-            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
-        };
-
-        // Update value
-        if (varNode.hasReference()) {
-            Reference reference = varNode.getReference();
-            reference.setValue(modified);
-        } else {
-            String name = var.value.toString();
-            scope.setSymbol(name, modified);
-        }
-
-        result.setType(NodeType.CONSTANT);
-
-        if (ast.kind == AstKind.AST_PRE_DEC || ast.kind == AstKind.AST_PRE_INC) {
-            result.setValue(modified);
-        } else {
-            result.setValue(original);
         }
     }
 
-    private void executeLen(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast expr = ast.child[0];
+    private void writeSamples(SamplingProfiler sampler) {
+        sampler.stop();
 
-        var exprNode = new Node();
-        execute(expr, exprNode);
-
-        if (exprNode.getType() != NodeType.CONSTANT) {
-            fatalError("Expression of type '%s' cannot be used as argument.", expr.kind);
-        }
-
-        Scalar value = exprNode.getValue();
-        Scalar length;
-
-        if (value.isArray()) {
-            length = Scalar.makeInt(value.toList().size());
-        } else if (value.isString()) {
-            length = Scalar.makeInt(value.toString().length());
-        } else {
-            fatalError("Type '%s' cannot be used as len() argument.", value.getType());
-            return;
+        try (var out = Files.newBufferedWriter(samplingProfile, StandardCharsets.UTF_8)) {
+            sampler.writeCollapsed(out);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-
-        result.setType(NodeType.CONSTANT);
-        result.setValue(length);
     }
 
-    private void executeUnset(Ast ast, Node result) {
-        assert ast.child.length == 1;
-
-        Ast var = ast.child[0];
-
-        if (var.kind == AstKind.AST_ARRAY_ACCESS || var.kind == AstKind.AST_STRUCT_ACCESS) {
-            var varNode = new Node();
-            execute(var, varNode);
-
-            Reference reference = varNode.getReference();
-            reference.remove();
-        } else {
-            String name = var.value.toString();
-            scope.removeSymbol(name);
-        }
-
-        result.setType(NodeType.NONE);
-        result.setValue(null);
+    private CompiledScript compile(SourceFile source, Backend backend) {
+        ParsedFile parsed = parse(source);
+        return new CompiledScript(parsed, handlers, linker, backend, memoization, memoCacheSize);
     }
 
-    private void executeIfStatement(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast cond = ast.child[0];
-        Ast stmt = ast.child[1];
-
-        var condNode = new Node();
-        execute(cond, condNode);
-
-        boolean executed = false;
-
-        if (condNode.getValue().toBoolean()) {
-            scope.beginBlock();
+    private ParsedFile parse(SourceFile source) {
+        String key = null;
+        if (parseCache != null) {
+            key = parseCache.key(source.getBytes());
 
-            var node = new Node();
-            execute(stmt, node);
-
-            scope.endBlock();
-            executed = true;
-
-            if (node.mustReturn()) {
-                node.propagateTo(result);
-                return;
+            ParsedFile cached = parseCache.load(key);
+            if (cached != null) {
+                return cached;
             }
         }
 
-        result.setType(NodeType.TMP_VALUE);
-        result.setValue(Scalar.makeBool(executed));
-    }
-
-    private void executeIfElseStatement(Ast ast, Node result) {
-        assert ast.child.length == 2;
-        assert ast.child[0].kind == AstKind.AST_IF;
-
-        Ast ifstmt = ast.child[0];
-        Ast elstmt = ast.child[1];
-
-        var ifstmtNode = new Node();
-        execute(ifstmt, ifstmtNode);
-
-        if (!ifstmtNode.getValue().toBoolean()) {
-            // execute 'else' block if needed
-            scope.beginBlock();
-
-            var node = new Node();
-            execute(elstmt, node);
-
-            scope.endBlock();
-
-            if (node.mustReturn()) {
-                node.propagateTo(result);
-                return;
-            }
-        }
-
-        if (ifstmtNode.mustReturn()) {
-            ifstmtNode.propagateTo(result);
-        }
-    }
-
-    private void executeForStatement(Ast ast, Node result) {
-        assert ast.child.length == 4;
-
-        Ast decl = ast.child[0];
-        Ast cond = ast.child[1];
-        Ast step = ast.child[2];
-        Ast stmt = ast.child[3];
-
-        var declOp = new Node();
-        var condOp = new Node();
-        var stepOp = new Node();
-        var stmtOp = new Node();
-
-        execute(decl, declOp);
-        execute(cond, condOp);
+        var factory = new ComplexSymbolFactory();
+        var lexer = new Lexer(source.getChars(), source.getLength(), factory);
+        var parser = new Parser(lexer, factory);
 
-        while (condOp.getValue().toBoolean()) {
-            scope.beginBlock();
-            execute(stmt, stmtOp);
-            scope.endBlock();
-
-            if (stmtOp.mustReturn()) {
-                stmtOp.propagateTo(result);
-                return;
-            }
-
-            execute(step, stepOp);
-            execute(cond, condOp);
-        }
-
-        result.setType(NodeType.NONE);
-        result.setValue(null);
-    }
-
-    private void executeForeachStatement(Ast ast, Node result) {
-        assert ast.child.length == 3;
-
-        Ast var = ast.child[0];
-        Ast expr = ast.child[1];
-        Ast stmt = ast.child[2];
-
-        var exprNode = new Node();
-        execute(expr, exprNode);
-
-        if (exprNode.getType() != NodeType.CONSTANT) {
-            fatalError("Expression '%s' cannot be iterated.", expr.kind);
-        }
-
-        Scalar iterable = exprNode.getValue();
-        if (!iterable.isArray()) {
-            fatalError("Cannot iterate non-array value '%s'.", iterable.getType());
-        }
-
-        // Get var identifier
-        String name = var.value.toString();
-        List<Scalar> array = iterable.toList();
-
-        // Create local var if needed
-        if (!scope.hasSymbol(name)) {
-            scope.addSymbol(name, null);
-        }
-
-        for (Scalar value : array) {
-            scope.beginBlock();
-            scope.setSymbol(name, value);
-
-            var node = new Node();
-            execute(stmt, node);
-
-            scope.endBlock();
-
-            if (node.mustReturn()) {
-                node.propagateTo(result);
-                return;
-            }
+        Symbol result;
+        try {
+            result = parser.parse();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Syntax errors (the parser reports them as checked exceptions)
+            throw new RuntimeException(e.getMessage(), e);
         }
 
-        result.setType(NodeType.NONE);
-        result.setValue(null);
-    }
-
-    private void executeDoWhileStatement(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast stmt = ast.child[0];
-        Ast expr = ast.child[1];
-
-        var stmtOp = new Node();
-        var exprOp = new Node();
-
-        do {
-            scope.beginBlock();
-            execute(stmt, stmtOp);
-            scope.endBlock();
-
-            if (stmtOp.mustReturn()) {
-                stmtOp.propagateTo(result);
-                return;
-            }
-
-            execute(expr, exprOp);
-        } while (exprOp.getValue().toBoolean());
-
-        result.setType(NodeType.NONE);
-        result.setValue(null);
-    }
-
-    private void executeWhileStatement(Ast ast, Node result) {
-        assert ast.child.length == 2;
-
-        Ast expr = ast.child[0];
-        Ast stmt = ast.child[1];
-
-        var exprOp = new Node();
-        var stmtOp = new Node();
-        execute(expr, exprOp);
-
-        while (exprOp.getValue().toBoolean()) {
-            scope.beginBlock();
-            execute(stmt, stmtOp);
-            scope.endBlock();
-
-            if (stmtOp.mustReturn()) {
-                stmtOp.propagateTo(result);
-                return;
-            }
+        var parsed = new ParsedFile((Ast) result.value, parser.getDeclaredStructs(), parser.getDeclaredFunctions());
 
-            execute(expr, exprOp);
+        if (parseCache != null) {
+            parseCache.store(key, parsed);
         }
 
-        result.setType(NodeType.NONE);
-        result.setValue(null);
+        return parsed;
     }
 }
@@ -4,5 +4,5 @@ import java.util.List;
 
 @FunctionalInterface
 public interface FunctionHandler {
-    void call(Node result, List<Scalar> args);
+    void call(Context context, Node result, List<Scalar> args);
 }
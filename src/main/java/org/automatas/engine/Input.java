@@ -0,0 +1,201 @@
+package org.automatas.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The buffered source read by input() and lines().
+ * <p>
+ * Lines are split in a large byte buffer and decoded (as UTF-8) one at a time. The buffer holds bytes that were
+ * read ahead of the current line, so a stream must be read through a single Input: the standard input of the
+ * process gets a shared one (see standard()), which every Context that reads it uses. The methods are synchronized,
+ * since tasks and parallel loops share the input of the execution that started them.
+ */
+public final class Input {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static Input standard;
+
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    /* The part of the current line read before the buffer was refilled */
+    private byte[] line = new byte[0];
+    private int lineLength;
+
+    /* The last line ended with '\r': a '\n' that follows it belongs to the same terminator */
+    private boolean skipLineFeed;
+
+    /**
+     * Creates an input that reads a stream. The stream is never closed.
+     *
+     * @param stream     The stream to read.
+     * @param bufferSize The size of the buffer, in bytes.
+     */
+    public Input(InputStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Gets the input of a stream: the shared input for the standard input of the process, a new one otherwise.
+     *
+     * @param stream The stream to read.
+     * @return The input.
+     */
+    public static Input of(InputStream stream) {
+        return stream == System.in ? standard() : new Input(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Gets the input shared by all the readers of the standard input of the process.
+     *
+     * @return The input.
+     */
+    public static synchronized Input standard() {
+        // System.setIn() replaces the stream (and the bytes buffered for the old one are not part of it)
+        if (standard == null || standard.stream != System.in) {
+            standard = new Input(System.in, DEFAULT_BUFFER_SIZE);
+        }
+
+        return standard;
+    }
+
+    /**
+     * Reads a line. Lines end with '\n', '\r' or "\r\n".
+     *
+     * @return The line (without the line terminator), or null at the end of the input.
+     * @throws IOException If the stream cannot be read.
+     */
+    public synchronized String readLine() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                // The last line may have no terminator
+                return lineLength > 0 ? takeLine(0, 0) : null;
+            }
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+
+            int start = position;
+            for (int i = start; i < limit; i++) {
+                byte b = buffer[i];
+
+                if (b == '\n' || b == '\r') {
+                    position = i + 1;
+                    skipLineFeed = b == '\r';
+                    return takeLine(start, i);
+                }
+            }
+
+            // The line continues past the buffer
+            appendLine(start, limit);
+            position = limit;
+        }
+    }
+
+    /**
+     * Gets the lines of the input, as string values read one at a time while they're iterated (foreach stops at
+     * the end of the input). A loop that ends early leaves the rest of the lines to be read.
+     *
+     * @return The stream of lines.
+     */
+    public Lines lines() {
+        return new Lines();
+    }
+
+    private boolean fill() throws IOException {
+        int count;
+        do {
+            count = stream.read(buffer, 0, buffer.length);
+        } while (count == 0);
+
+        position = 0;
+        limit = Math.max(count, 0);
+
+        return count > 0;
+    }
+
+    private void appendLine(int from, int to) {
+        int length = to - from;
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+
+        System.arraycopy(buffer, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private String takeLine(int from, int to) {
+        if (lineLength == 0) {
+            return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        appendLine(from, to);
+        String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+        lineLength = 0;
+
+        return text;
+    }
+
+    /**
+     * The value returned by lines(). Every iteration continues where the input was left.
+     */
+    public final class Lines implements Iterable<Scalar> {
+        private Lines() {
+        }
+
+        @Override
+        public Iterator<Scalar> iterator() {
+            return new Iterator<>() {
+                private String next;
+                private boolean ended;
+
+                @Override
+                public boolean hasNext() {
+                    // Read only when asked, so a loop that ends early doesn't consume the next line
+                    if (next == null && !ended) {
+                        try {
+                            next = readLine();
+                        } catch (IOException e) {
+                            throw new RuntimeException("Fatal OS Exception: stdin read failed.", e);
+                        }
+
+                        ended = next == null;
+                    }
+
+                    return next != null;
+                }
+
+                @Override
+                public Scalar next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    Scalar value = Scalar.makeString(next);
+                    next = null;
+
+                    return value;
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "stream";
+        }
+    }
+}
@@ -0,0 +1,1148 @@
+package org.automatas.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a compiled script by walking its Ast. Every execution gets its own Interpreter, so the scopes and the
+ * state of the calls are never shared between threads.
+ */
+final class Interpreter {
+    private final ScopeManager scope;
+    private final CompiledScript script;
+    private final Context context;
+    private final MemoCache[] memoCaches;
+
+    /* Result of the expressions that produce no value (eg: a call to a function that returns nothing) */
+    private static final Scalar NO_VALUE = Scalar.make(null, null);
+
+    /* Set by a return statement; the enclosing statements stop until the call consumes the value */
+    private boolean returning;
+    private Scalar returnValue;
+
+    /* Set by a return statement in tail position; the enclosing call runs the function within its own frame */
+    private UserFunction tailFunction;
+    private List<Scalar> tailArguments;
+
+    /* Reused by every call to a built-in function */
+    private final Node callResult = new Node();
+
+    /* Null unless the context has a Profiler */
+    private final Profiler.Recorder profiler;
+
+    /* Null unless the context has a SamplingProfiler */
+    private final SamplingProfiler.Stack callStack;
+
+    /* Null unless the context has an AllocationProfiler */
+    private final AllocationProfiler.Recorder allocations;
+
+    /* Counts the loop iterations and calls for the Budget of the context (null if it has none) */
+    private final Budget.Meter meter;
+
+    /* True if the nodes are measured by a Profiler or an AllocationProfiler */
+    private final boolean instrumented;
+
+    /**
+     * Interpreter constructor.
+     *
+     * @param script     The script to run.
+     * @param context    The context of the execution.
+     * @param memoCaches The caches of results of the functions of the script, by function index.
+     */
+    Interpreter(CompiledScript script, Context context, MemoCache[] memoCaches) {
+        this(script, context, memoCaches, new ScopeManager(), null, "main", 0);
+    }
+
+    /**
+     * Creates the Interpreter of a task or a parallel foreach worker (or of the top-level code).
+     *
+     * @param stackPrefix The call stack of the code that started the worker, or null for the top-level code.
+     * @param function    The function that runs first, for the AllocationProfiler ("main" for the top-level code).
+     * @param callDepth   The call depth of the code that started the worker, for the Budget (0 for a task).
+     */
+    private Interpreter(CompiledScript script, Context context, MemoCache[] memoCaches, ScopeManager scope,
+                        String[] stackPrefix, String function, int callDepth) {
+        this.script = script;
+        this.context = context;
+        this.memoCaches = memoCaches;
+        this.scope = scope;
+
+        Profiler contextProfiler = context.getProfiler();
+        this.profiler = contextProfiler != null ? contextProfiler.newRecorder() : null;
+
+        SamplingProfiler sampler = context.getSamplingProfiler();
+        if (sampler == null) {
+            this.callStack = null;
+        } else {
+            this.callStack = stackPrefix != null ? sampler.attach(stackPrefix) : sampler.attach();
+        }
+
+        AllocationProfiler allocationProfiler = context.getAllocationProfiler();
+        this.allocations = allocationProfiler != null ? allocationProfiler.attach(function) : null;
+        this.instrumented = profiler != null || allocations != null;
+
+        Budget budget = context.getBudget();
+        this.meter = budget != null ? budget.meter(callDepth) : null;
+    }
+
+    /**
+     * Runs the top-level statements of the script.
+     */
+    void run() {
+        try {
+            scope.push(script.getFrameSize());
+            execute(script.getRoot());
+            scope.pop();
+        } finally {
+            finishProfile();
+        }
+    }
+
+    /**
+     * Adds what this Interpreter recorded to the profilers of the context, stops sampling its call stack, and gives
+     * its unused steps back to the Budget.
+     */
+    private void finishProfile() {
+        if (meter != null) {
+            meter.retire();
+        }
+
+        if (profiler != null) {
+            profiler.finish();
+        }
+
+        if (callStack != null) {
+            callStack.detach();
+        }
+
+        if (allocations != null) {
+            allocations.finish();
+        }
+    }
+
+    private void fatalError(String fmt, Object... args) {
+        String message = "Fatal Error: " + fmt.formatted(args);
+        throw new RuntimeException(message);
+    }
+
+    private Scalar execute(Ast ast) {
+        // The measures are kept out of this method, so it stays small enough to be inlined
+        return instrumented ? executeInstrumented(ast) : dispatch(ast);
+    }
+
+    private Scalar executeInstrumented(Ast ast) {
+        int line = allocations != null ? allocations.enterNode(ast) : 0;
+        if (profiler != null) {
+            profiler.enter(ast);
+        }
+
+        try {
+            return dispatch(ast);
+        } finally {
+            if (profiler != null) {
+                profiler.exit();
+            }
+
+            if (allocations != null) {
+                allocations.exitNode(line);
+            }
+        }
+    }
+
+    private Scalar dispatch(Ast ast) {
+        return switch (ast.kind) {
+            case AST_STATEMENT_LIST -> executeStatementList(ast);
+            case AST_SCALAR -> executeScalar(ast);
+            case AST_ARRAY -> executeArray(ast);
+            case AST_DECLARATION -> executeVarDeclaration(ast);
+            case AST_ASSIGN -> executeVarAssign(ast);
+            case AST_IDENTIFIER -> executeVarFetch(ast);
+            case AST_ARRAY_ACCESS -> executeArrayAccess(ast);
+            case AST_STRUCT_ACCESS -> executeStructAccess(ast);
+            case AST_CALL -> executeCall(ast);
+            case AST_RETURN -> executeReturn(ast);
+            case AST_AND -> executeLogicAnd(ast);
+            case AST_OR -> executeLogicOr(ast);
+            case AST_EQUALS, AST_NOT_EQUALS, AST_SMALLER, AST_SMALLER_OR_EQUAL, AST_GREATER, AST_GREATER_OR_EQUAL,
+                 AST_ADD, AST_SUBTRACT, AST_MULTIPLY, AST_POW, AST_DIVIDE, AST_MODULO -> executeScalarOperations(ast);
+            case AST_BOOL_NOT -> executeBoolNot(ast);
+            case AST_POST_INC, AST_POST_DEC, AST_PRE_INC, AST_PRE_DEC -> executeDecInc(ast);
+            case AST_LEN -> executeLen(ast);
+            case AST_TYPEOF -> executeTypeof(ast);
+            case AST_AS -> executeTypeCast(ast);
+            case AST_IS -> executeTypeCheck(ast);
+            case AST_NEW -> executeNewInstance(ast);
+            case AST_SPAWN -> executeSpawn(ast);
+            case AST_UNSET -> executeUnset(ast);
+            case AST_IF -> executeIfStatement(ast);
+            case AST_IF_ELSE -> executeIfElseStatement(ast);
+            case AST_FOR -> executeForStatement(ast);
+            case AST_FOREACH -> executeForeachStatement(ast);
+            case AST_PARALLEL_FOREACH -> executeParallelForeachStatement(ast);
+            case AST_DO_WHILE -> executeDoWhileStatement(ast);
+            case AST_WHILE -> executeWhileStatement(ast);
+            case AST_REDUCTION -> throw new IllegalStateException("Unexpected value: " + ast.kind);
+        };
+    }
+
+    private Scalar executeStatementList(Ast ast) {
+        assert ast.kind == AstKind.AST_STATEMENT_LIST;
+
+        for (Ast statement : ast.child) {
+            execute(statement);
+
+            if (returning) {
+                break;
+            }
+        }
+
+        endBlock(ast);
+        return NO_VALUE;
+    }
+
+    private void endBlock(Ast owner) {
+        scope.endBlock(owner.blockStart, owner.blockEnd);
+    }
+
+    /**
+     * Finds the slot of the variable or raises a fatal error if it's not defined.
+     *
+     * @param identifier The AST_IDENTIFIER of the variable.
+     * @return The slot of the variable.
+     */
+    private int findVariable(Ast identifier) {
+        int slot = scope.findSlot(identifier);
+        if (slot < 0) {
+            fatalError("undefined variable '%s'.", identifier.value);
+        }
+
+        return slot;
+    }
+
+    private Scalar executeScalar(Ast ast) {
+        assert ast.value != null;
+        assert ast.child.length == 0;
+
+        return ast.constant != null ? ast.constant : Scalar.make(ast.value, ast.type);
+    }
+
+    private Scalar executeArray(Ast ast) {
+        assert ast.kind == AstKind.AST_ARRAY;
+
+        if (ast.constant != null) {
+            return Scalar.makeArray(ast.constant.toArray().copy());
+        }
+
+        var values = new ScalarArray(ast.child.length);
+        for (Ast child : ast.child) {
+            Scalar value = execute(child);
+            values.add(value == NO_VALUE ? null : value);
+        }
+
+        return Scalar.makeArray(values);
+    }
+
+    /**
+     * Evaluates the arguments of a call.
+     *
+     * @param ast The AST_ARRAY node.
+     * @return The list of values; expressions that produce no value are stored as null.
+     */
+    private List<Scalar> executeArguments(Ast ast) {
+        List<Scalar> values = new ArrayList<>(ast.child.length);
+        for (Ast child : ast.child) {
+            Scalar value = execute(child);
+            values.add(value == NO_VALUE ? null : value);
+        }
+
+        return values;
+    }
+
+    private Scalar executeTypeof(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast expr = ast.child[0];
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Cannot get type of non-scalar expression.");
+        }
+
+        return Scalar.makeString(value.getType().toString());
+    }
+
+    private Scalar executeTypeCast(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast expr = ast.child[0];
+        Ast type = ast.child[1];
+
+        Scalar original = execute(expr);
+
+        if (original == NO_VALUE) {
+            fatalError("Cannot type cast non-scalar expression.");
+        }
+
+        String typeName = type.value.toString();
+        ScalarType target = ScalarType.getType(typeName);
+
+        if (target == null) {
+            fatalError("Cannot cast to unknown type '%s'.", type.value);
+            return null;
+        }
+
+        Scalar casted = switch (target) {
+            case ARRAY -> Scalar.makeArray(original.isArray() ? original.toArray().copy() : original.toList());
+            case BOOL -> Scalar.makeBool(original.toBoolean());
+            case FLOAT -> Scalar.makeFloat(original.toDouble());
+            case INT -> Scalar.makeInt(original.toLong());
+            case STRING -> Scalar.makeString(original.toString());
+            case OBJECT, TASK, CHANNEL, STREAM -> null;
+        };
+
+        if (casted == null) {
+            fatalError("Cannot cast to %s.", target);
+        }
+
+        return casted;
+    }
+
+    private Scalar executeTypeCheck(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast expr = ast.child[0];
+        Ast type = ast.child[1];
+
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Cannot type cast non-scalar expression.");
+        }
+
+        String typeName = type.value.toString();
+        ScalarType target = ScalarType.getType(typeName);
+
+        if (target == null) {
+            fatalError("Unknown type '%s'.", type.value);
+            return null;
+        }
+
+        return Scalar.makeBool(value.getType() == target);
+    }
+
+    private Scalar executeNewInstance(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast identifier = ast.child[0];
+        String name = identifier.value.toString();
+
+        StructLayout layout = script.getLayout(name);
+        if (layout == null) {
+            fatalError("Cannot instantiate undefined struct '%s'.", name);
+        }
+
+        return Scalar.makeObject(layout);
+    }
+
+    private Scalar executeVarDeclaration(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+
+        if (var.kind != AstKind.AST_IDENTIFIER) {
+            fatalError("Illegal array access on left side of var declaration.");
+        }
+
+        String name = var.value.toString();
+        if (scope.isDefined(var.slot)) {
+            fatalError("'%s' is already defined.", name);
+        }
+
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Expression of type '%s' cannot be assigned to variable '%s'.", expr.kind, name);
+        }
+
+        scope.set(var.slot, value);
+        return value;
+    }
+
+    private Scalar executeVarAssign(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+
+        if (var.kind == AstKind.AST_ARRAY_ACCESS || var.kind == AstKind.AST_STRUCT_ACCESS) {
+            return executeReferenceAssign(ast);
+        }
+
+        String name = var.value.toString();
+        int slot = findVariable(var);
+
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Expression of type '%s' cannot be assigned to variable '%s'.", expr.kind, name);
+        }
+
+        scope.set(slot, value);
+        return value;
+    }
+
+    private Scalar executeReferenceAssign(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+
+        Reference reference = executeReference(var);
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Expression of type '%s' cannot be assigned as value.", expr.kind);
+        }
+
+        reference.setValue(value);
+        return value;
+    }
+
+    private Scalar executeVarFetch(Ast ast) {
+        assert ast.child.length == 0;
+
+        int slot = findVariable(ast);
+        return scope.get(slot);
+    }
+
+    /**
+     * Evaluates the array of an AST_ARRAY_ACCESS.
+     *
+     * @param ast The AST_ARRAY_ACCESS node.
+     * @return The array scalar.
+     */
+    private Scalar executeArrayBase(Ast ast) {
+        assert ast.child.length == 2;
+
+        Scalar array = execute(ast.child[0]);
+
+        if (!array.isArray()) {
+            fatalError("Cannot use array access on non array value.");
+        }
+
+        return array;
+    }
+
+    private Scalar executeArrayAccess(Ast ast) {
+        Scalar array = executeArrayBase(ast);
+        Ast idx = ast.child[1];
+
+        if (idx == null) {
+            // Add new "empty" space (expecting "arr[] = expr")
+            array.toList().add(null);
+            return NO_VALUE;
+        }
+
+        // Existing index within array (expecting "arr[index]")
+        Scalar index = executeIndex(idx);
+        return array.toArray().get((int) index.toLong());
+    }
+
+    private Scalar executeIndex(Ast idx) {
+        Scalar index = execute(idx);
+
+        if (index == NO_VALUE) {
+            fatalError("Invalid array index expression.");
+        }
+
+        return index;
+    }
+
+    /**
+     * Evaluates the instance of an AST_STRUCT_ACCESS and checks the member exists.
+     *
+     * @param ast The AST_STRUCT_ACCESS node.
+     * @return The struct instance.
+     */
+    private StructInstance executeStructBase(Ast ast) {
+        assert ast.child.length == 2;
+        assert ast.child[1].kind == AstKind.AST_IDENTIFIER;
+
+        Scalar object = execute(ast.child[0]);
+        String member = ast.child[1].value.toString();
+
+        if (!object.isObject()) {
+            fatalError("Attempt to assign property '%s' on non-object value.", member);
+        }
+
+        StructInstance instance = object.toObject();
+        assert instance != null;
+
+        if (instance.getLayout().slotOf(ast) < 0) {
+            fatalError("Undefined property %s::%s.", instance.getStructName(), member);
+        }
+
+        return instance;
+    }
+
+    private Scalar executeStructAccess(Ast ast) {
+        StructInstance instance = executeStructBase(ast);
+        return instance.getValue(instance.getLayout().slotOf(ast));
+    }
+
+    /**
+     * Evaluates an AST_ARRAY_ACCESS or AST_STRUCT_ACCESS as the target of a write.
+     *
+     * @param ast The access node.
+     * @return The reference to the element or property.
+     */
+    private Reference executeReference(Ast ast) {
+        if (ast.kind == AstKind.AST_STRUCT_ACCESS) {
+            StructInstance instance = executeStructBase(ast);
+            return new StructReference(instance, instance.getLayout().slotOf(ast));
+        }
+
+        Scalar array = executeArrayBase(ast);
+        Ast idx = ast.child[1];
+
+        if (idx == null) {
+            // Add new "empty" space and return (expecting "arr[] = expr")
+            List<Scalar> list = array.toList();
+            list.add(null);
+            return new ArrayReference(array, Scalar.makeInt(list.size() - 1));
+        }
+
+        Scalar index = executeIndex(idx);
+        var reference = new ArrayReference(array, index);
+
+        // Dereference now, so an invalid index fails before the right-hand side is evaluated
+        reference.getValue();
+        return reference;
+    }
+
+    private Scalar executeCall(Ast ast) {
+        assert ast.child.length == 2;
+
+        List<Scalar> argList = executeArguments(ast.child[1]);
+        return call(ast, binding(ast), argList);
+    }
+
+    /**
+     * Calls the function bound to a call site.
+     *
+     * @param ast     The AST_CALL node.
+     * @param binding The binding of the call site.
+     * @param argList The values of the arguments.
+     * @return The value returned by the function, or NO_VALUE.
+     */
+    private Scalar call(Ast ast, Linker.Binding binding, List<Scalar> argList) {
+        Ast funcName = ast.child[0];
+
+        FunctionHandler handler = binding.handler;
+        if (handler != null) {
+            callResult.setType(NodeType.NONE);
+            callResult.setValue(null);
+            handler.call(context, callResult, argList);
+
+            if (callResult.hasError()) {
+                String error = callResult.getValue().toString();
+                fatalError(error);
+            }
+
+            if (callResult.getType() == NodeType.RETURN && callResult.hasValue()) {
+                return callResult.getValue();
+            }
+
+            return NO_VALUE;
+        }
+
+        UserFunction func = binding.function;
+        if (func != null) {
+            // Pure functions are served from their cache when possible (unless a built-in was registered since)
+            MemoCache cache = memoCaches[func.getIndex()];
+            if (cache != null && !script.isLinkCurrent()) {
+                cache = null;
+            }
+
+            MemoCache.Key key = cache != null ? MemoCache.key(argList, func.getParameters().length) : null;
+            if (key != null) {
+                Scalar cached = cache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            if (meter != null) {
+                meter.enterCall();
+            }
+
+            // The frame counts for the allocations of the callee
+            if (allocations != null) {
+                allocations.enterFunction(func.getName());
+            }
+
+            // Create stack frame for the function
+            scope.push(func.getFrameSize());
+            boolean tailCalled = false;
+
+            if (profiler != null) {
+                profiler.enterFunction(func);
+            }
+
+            if (callStack != null) {
+                callStack.push(func.getName());
+            }
+
+            while (true) {
+                // Pass arguments (parameters take the first slots)
+                String[] params = func.getParameters();
+                for (int i = 0; i < params.length; i++) {
+                    scope.set(i, argList.get(i));
+                }
+
+                // Do call
+                Ast body = func.getBody();
+                execute(body);
+
+                if (tailFunction == null) {
+                    break;
+                }
+
+                // Tail call: run the callee within the same frame instead of nesting a new call
+                func = tailFunction;
+                argList = tailArguments;
+                tailFunction = null;
+                tailArguments = null;
+                returning = false;
+
+                if (meter != null) {
+                    meter.step();
+                }
+
+                if (allocations != null) {
+                    allocations.replaceFunction(func.getName());
+                }
+
+                scope.reuse(func.getFrameSize());
+                tailCalled = true;
+
+                if (profiler != null) {
+                    profiler.exitFunction();
+                    profiler.enterFunction(func);
+                }
+
+                if (callStack != null) {
+                    callStack.replace(func.getName());
+                }
+            }
+
+            if (profiler != null) {
+                profiler.exitFunction();
+            }
+
+            if (callStack != null) {
+                callStack.pop();
+            }
+
+            if (allocations != null) {
+                allocations.exitFunction();
+            }
+
+            if (meter != null) {
+                meter.exitCall();
+            }
+
+            // Restore stack
+            scope.pop();
+
+            Scalar value = returnValue;
+            returning = false;
+            returnValue = null;
+
+            if (value == null && tailCalled) {
+                // The callee returned nothing to the 'return' statement that called it
+                fatalError("Cannot return non-constant expression %s.", AstKind.AST_CALL);
+            }
+
+            if (key != null) {
+                cache.put(key, value);
+            }
+
+            return value != null ? value : NO_VALUE;
+        }
+
+        fatalError("Call to undefined function '%s'.", funcName.value);
+        return null;
+    }
+
+    private Scalar executeSpawn(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast call = ast.child[0];
+        List<Scalar> argList = executeArguments(call.child[1]);
+        Linker.Binding binding = binding(call);
+
+        if (binding.handler == null && binding.function == null) {
+            fatalError("Call to undefined function '%s'.", call.child[0].value);
+        }
+
+        // The task gets its own copy of the arrays and instances it receives
+        argList.replaceAll(Scalar::isolate);
+        String[] stackPrefix = callStack != null ? callStack.snapshot() : null;
+
+        Task task = Task.start(context, taskContext -> {
+            var worker = new Interpreter(script, taskContext, taskContext.getMemoCaches(script), new ScopeManager(),
+                    stackPrefix, "main", 0);
+            try {
+                Scalar value = worker.call(call, binding, argList);
+                return value != NO_VALUE ? value : null;
+            } finally {
+                worker.finishProfile();
+            }
+        });
+
+        return Scalar.makeTask(task);
+    }
+
+    /**
+     * Gets the binding of a call site, binding it again if a built-in function was registered since.
+     *
+     * @param call The AST_CALL node.
+     * @return The current binding.
+     */
+    private Linker.Binding binding(Ast call) {
+        Linker.Binding binding = call.binding;
+        Linker linker = script.getLinker();
+
+        if (binding.version != linker.getVersion()) {
+            binding = linker.bind(call, script.getFunctions());
+        }
+
+        return binding;
+    }
+
+    /**
+     * Finds the function of a call marked by the Resolver, if it can run as a tail call (built-ins cannot).
+     *
+     * @param call The AST_CALL node.
+     * @return The user function called, or null if the call is not a tail call.
+     */
+    private UserFunction tailCallee(Ast call) {
+        return call.tailCall ? binding(call).function : null;
+    }
+
+    private Scalar executeReturn(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast expr = ast.child[0];
+        Scalar value = null;
+
+        /* TODO: Add callstack validation logic */
+
+        UserFunction callee = expr != null && expr.kind == AstKind.AST_CALL ? tailCallee(expr) : null;
+
+        if (callee != null) {
+            // Evaluate the arguments here and leave the call to the enclosing one
+            tailFunction = callee;
+            tailArguments = executeArguments(expr.child[1]);
+        } else if (expr != null) {
+            value = execute(expr);
+
+            if (value == NO_VALUE) {
+                fatalError("Cannot return non-constant expression %s.", expr.kind);
+            }
+        }
+
+        returning = true;
+        returnValue = value;
+        return NO_VALUE;
+    }
+
+    private Scalar executeLogicAnd(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast lhs = ast.child[0];
+        Ast rhs = ast.child[1];
+
+        Scalar a = execute(lhs);
+
+        if (a == NO_VALUE) {
+            fatalError("Invalid expression in left-hand side operand.");
+        }
+
+        if (!a.toBoolean()) {
+            // false && ??
+            return Scalar.makeBool(false);
+        }
+
+        Scalar b = execute(rhs);
+
+        if (b == NO_VALUE) {
+            fatalError("Invalid expression in right-hand side operand.");
+        }
+
+        // true && ??
+        return Scalar.makeBool(b.toBoolean());
+    }
+
+    private Scalar executeLogicOr(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast lhs = ast.child[0];
+        Ast rhs = ast.child[1];
+
+        Scalar a = execute(lhs);
+
+        if (a == NO_VALUE) {
+            fatalError("Invalid expression in left-hand side operand.");
+        }
+
+        if (a.toBoolean()) {
+            // true || ??
+            return Scalar.makeBool(true);
+        }
+
+        Scalar b = execute(rhs);
+
+        if (b == NO_VALUE) {
+            fatalError("Invalid expression in right-hand side operand.");
+        }
+
+        // false || ??
+        return Scalar.makeBool(b.toBoolean());
+    }
+
+    private Scalar executeBoolNot(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast expr = ast.child[0];
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Cannot negate non-boolean expression.");
+        }
+
+        return Scalar.makeBool(!value.toBoolean());
+    }
+
+    private Scalar executeScalarOperations(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast lhs = ast.child[0];
+        Ast rhs = ast.child[1];
+
+        Scalar a = execute(lhs);
+
+        if (a == NO_VALUE) {
+            fatalError("Invalid expression in left-hand side operand.");
+        }
+
+        Scalar b = execute(rhs);
+
+        if (b == NO_VALUE) {
+            fatalError("Invalid expression in right-hand side operand.");
+        }
+
+        return ast.operator.execute(ast, a, b);
+    }
+
+    private Scalar executeDecInc(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast var = ast.child[0];
+        Reference reference = null;
+        Scalar original;
+
+        if (var.kind == AstKind.AST_ARRAY_ACCESS || var.kind == AstKind.AST_STRUCT_ACCESS) {
+            reference = executeReference(var);
+            original = reference.getValue();
+        } else {
+            original = execute(var);
+        }
+
+        if (original.isArray() || original.isString() || original.isObject()) {
+            fatalError("Cannot increment a value of type '%s'.", original.getType());
+        }
+
+        Scalar modified = switch (ast.kind) {
+            case AST_POST_DEC, AST_PRE_DEC -> ScalarOperation.subtract(original, Scalar.makeInt(1));
+            case AST_POST_INC, AST_PRE_INC -> ScalarOperation.add(original, Scalar.makeInt(1));
+            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
+        };
+
+        // Update value
+        if (reference != null) {
+            reference.setValue(modified);
+        } else {
+            scope.set(findVariable(var), modified);
+        }
+
+        if (ast.kind == AstKind.AST_PRE_DEC || ast.kind == AstKind.AST_PRE_INC) {
+            return modified;
+        }
+
+        return original;
+    }
+
+    private Scalar executeLen(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast expr = ast.child[0];
+        Scalar value = execute(expr);
+
+        if (value == NO_VALUE) {
+            fatalError("Expression of type '%s' cannot be used as argument.", expr.kind);
+        }
+
+        if (value.isArray()) {
+            return Scalar.makeInt(value.toList().size());
+        }
+
+        if (value.isString()) {
+            return Scalar.makeInt(value.stringLength());
+        }
+
+        fatalError("Type '%s' cannot be used as len() argument.", value.getType());
+        return null;
+    }
+
+    private Scalar executeUnset(Ast ast) {
+        assert ast.child.length == 1;
+
+        Ast var = ast.child[0];
+
+        if (var.kind == AstKind.AST_ARRAY_ACCESS || var.kind == AstKind.AST_STRUCT_ACCESS) {
+            Reference reference = executeReference(var);
+            reference.remove();
+        } else {
+            int slot = scope.findSlot(var);
+            if (slot >= 0) {
+                scope.remove(slot);
+            }
+        }
+
+        return NO_VALUE;
+    }
+
+    /**
+     * Executes an if statement.
+     *
+     * @return A bool scalar telling if the block was executed, used by AST_IF_ELSE.
+     */
+    private Scalar executeIfStatement(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast cond = ast.child[0];
+        Ast stmt = ast.child[1];
+
+        if (executeCondition(cond)) {
+            execute(stmt);
+            endBlock(ast);
+            return Scalar.makeBool(true);
+        }
+
+        return Scalar.makeBool(false);
+    }
+
+    /**
+     * Evaluates the condition of an if statement or a loop.
+     *
+     * @param cond The condition expression.
+     * @return The boolean value of the condition.
+     */
+    private boolean executeCondition(Ast cond) {
+        Scalar value = execute(cond);
+
+        if (value == NO_VALUE) {
+            fatalError("Cannot use non-scalar expression as condition.");
+        }
+
+        return value.toBoolean();
+    }
+
+    private Scalar executeIfElseStatement(Ast ast) {
+        assert ast.child.length == 2;
+        assert ast.child[0].kind == AstKind.AST_IF;
+
+        Ast ifstmt = ast.child[0];
+        Ast elstmt = ast.child[1];
+
+        if (!executeIfStatement(ifstmt).toBoolean()) {
+            // execute 'else' block if needed
+            execute(elstmt);
+            endBlock(ast);
+        }
+
+        return NO_VALUE;
+    }
+
+    private Scalar executeForStatement(Ast ast) {
+        assert ast.child.length == 4;
+
+        Ast decl = ast.child[0];
+        Ast cond = ast.child[1];
+        Ast step = ast.child[2];
+        Ast stmt = ast.child[3];
+
+        execute(decl);
+
+        while (executeCondition(cond)) {
+            if (meter != null) {
+                meter.step();
+            }
+
+            execute(stmt);
+            endBlock(ast);
+
+            if (returning) {
+                break;
+            }
+
+            execute(step);
+        }
+
+        return NO_VALUE;
+    }
+
+    private Scalar executeForeachStatement(Ast ast) {
+        assert ast.child.length == 3;
+
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+        Ast stmt = ast.child[2];
+
+        Scalar iterable = execute(expr);
+
+        if (iterable == NO_VALUE) {
+            fatalError("Expression '%s' cannot be iterated.", expr.kind);
+        }
+
+        Iterable<Scalar> array = iterable.toIterable();
+        if (array == null) {
+            fatalError("Cannot iterate non-array value '%s'.", iterable.getType());
+        }
+
+        // Create local var if needed
+        int slot = scope.findSlot(var);
+        if (slot < 0) {
+            slot = var.slot;
+            scope.set(slot, null);
+        }
+
+        for (Scalar value : array) {
+            if (meter != null) {
+                meter.step();
+            }
+
+            scope.set(slot, value);
+
+            execute(stmt);
+            endBlock(ast);
+
+            if (returning) {
+                break;
+            }
+        }
+
+        return NO_VALUE;
+    }
+
+    private Scalar executeParallelForeachStatement(Ast ast) {
+        assert ast.child.length == 5;
+
+        Ast expr = ast.child[1];
+        Scalar iterable = execute(expr);
+
+        if (iterable == NO_VALUE) {
+            fatalError("Expression '%s' cannot be iterated.", expr.kind);
+        }
+
+        if (!iterable.isArray()) {
+            fatalError("Cannot iterate non-array value '%s'.", iterable.getType());
+        }
+
+        String[] stackPrefix = callStack != null ? callStack.snapshot() : null;
+        String function = allocations != null ? allocations.getFunction() : "main";
+        int callDepth = meter != null ? meter.getDepth() : 0;
+
+        if (meter != null) {
+            meter.retire(); // The chunks take their own slices while this thread waits
+        }
+
+        ParallelLoop.run(ast, iterable.toList(), scope, context, (chunkContext, chunkScope, elements, from, to) -> {
+            var worker = new Interpreter(script, chunkContext, chunkContext.getMemoCaches(script), chunkScope,
+                    stackPrefix, function, callDepth);
+            try {
+                worker.executeParallelChunk(ast, elements, from, to);
+            } finally {
+                worker.finishProfile();
+            }
+        });
+
+        return NO_VALUE;
+    }
+
+    /**
+     * Runs the body of a parallel foreach for a range of elements, within the scope of a worker.
+     */
+    private void executeParallelChunk(Ast ast, Scalar[] elements, int from, int to) {
+        Ast var = ast.child[0];
+        Ast stmt = ast.child[2];
+
+        for (int i = from; i < to; i++) {
+            if (meter != null) {
+                meter.step();
+            }
+
+            scope.set(var.slot, elements[i]);
+
+            execute(stmt);
+            endBlock(ast);
+        }
+    }
+
+    private Scalar executeDoWhileStatement(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast stmt = ast.child[0];
+        Ast expr = ast.child[1];
+
+        do {
+            if (meter != null) {
+                meter.step();
+            }
+
+            execute(stmt);
+            endBlock(ast);
+
+            if (returning) {
+                break;
+            }
+        } while (executeCondition(expr));
+
+        return NO_VALUE;
+    }
+
+    private Scalar executeWhileStatement(Ast ast) {
+        assert ast.child.length == 2;
+
+        Ast expr = ast.child[0];
+        Ast stmt = ast.child[1];
+
+        while (executeCondition(expr)) {
+            if (meter != null) {
+                meter.step();
+            }
+
+            execute(stmt);
+            endBlock(ast);
+
+            if (returning) {
+                break;
+            }
+        }
+
+        return NO_VALUE;
+    }
+}
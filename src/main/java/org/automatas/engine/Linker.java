@@ -0,0 +1,125 @@
+package org.automatas.engine;
+
+import java.util.Map;
+
+/**
+ * Binds every call site (AST_CALL) of a program to the built-in or user function it calls, so calls don't look up
+ * the name of the function each time.
+ * <p>
+ * Built-in functions take precedence over user functions of the same name. Registering a built-in function
+ * changes the version of the Linker, which invalidates the existing bindings: call sites bound to an older version
+ * are bound again before running.
+ * <p>
+ * Bindings are immutable objects replaced as a whole, so compiled scripts running on several threads may rebind
+ * the same call site at once.
+ */
+public final class Linker {
+    /**
+     * The function called by a call site. At most one of handler and function is set (none if it is undefined).
+     */
+    public static final class Binding {
+        public final FunctionHandler handler;
+        public final UserFunction function;
+        public final int version;
+
+        private Binding(FunctionHandler handler, UserFunction function, int version) {
+            this.handler = handler;
+            this.function = function;
+            this.version = version;
+        }
+    }
+
+    private final Map<String, FunctionHandler> handlers;
+    private volatile int version;
+
+    /**
+     * Linker constructor.
+     *
+     * @param handlers The built-in functions, indexed by name (must support concurrent reads and writes).
+     */
+    public Linker(Map<String, FunctionHandler> handlers) {
+        this.handlers = handlers;
+    }
+
+    /**
+     * Adds (or replaces) a built-in function, invalidating the existing bindings.
+     *
+     * @param name    The name of the function.
+     * @param handler The implementation of the function.
+     */
+    public synchronized void registerBuiltIn(String name, FunctionHandler handler) {
+        handlers.put(name, handler);
+        version++;
+    }
+
+    /**
+     * Gets the version of the bindings. Call sites bound to another version must be bound again.
+     *
+     * @return The current version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Binds the call sites of a program, reporting calls with too few arguments before it runs.
+     *
+     * @param root      The root Ast of the program.
+     * @param functions The user functions of the program.
+     */
+    public void link(Ast root, Map<String, UserFunction> functions) {
+        linkCalls(root, functions);
+        for (UserFunction func : functions.values()) {
+            linkCalls(func.getBody(), functions);
+        }
+    }
+
+    private void linkCalls(Ast ast, Map<String, UserFunction> functions) {
+        if (ast == null) {
+            return;
+        }
+
+        if (ast.kind == AstKind.AST_CALL) {
+            bind(ast, functions);
+        }
+
+        for (Ast child : ast.child) {
+            linkCalls(child, functions);
+        }
+    }
+
+    /**
+     * Binds a call site to the function it calls with the current version. Calls to undefined functions are bound
+     * to nothing (a built-in function may be registered later), and fail when they run.
+     *
+     * @param call      The AST_CALL node.
+     * @param functions The user functions of the program.
+     * @return The new binding of the call site.
+     */
+    public Binding bind(Ast call, Map<String, UserFunction> functions) {
+        String name = call.child[0].value.toString();
+
+        // Read the version first: a concurrent registration then leaves the binding outdated, never wrong
+        int current = version;
+        FunctionHandler handler = handlers.get(name);
+        UserFunction function = handler == null ? functions.get(name) : null;
+
+        if (function != null) {
+            String[] params = function.getParameters();
+            int argc = call.child[1].child.length;
+
+            if (argc < params.length) {
+                fatalError("Too few arguments: %s() expects %d arguments, %d provided.", name, params.length, argc);
+            }
+        }
+
+        var binding = new Binding(handler, function, current);
+        call.binding = binding;
+        return binding;
+    }
+
+    private static void fatalError(String fmt, Object... args) {
+        String message = "Fatal Error: " + fmt.formatted(args);
+        throw new RuntimeException(message);
+    }
+}
@@ -0,0 +1,165 @@
+package org.automatas.engine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the results of a pure function by its arguments. When the cache is full, the least recently used entry
+ * is evicted.
+ * <p>
+ * Only bool, float, int and string values are cached: arrays and objects are mutable, so calls that take or
+ * return them always run the function.
+ */
+public final class MemoCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The arguments of a call, used as cache key.
+     */
+    public static final class Key {
+        private final Scalar[] args;
+        private final int hash;
+
+        private Key(Scalar[] args) {
+            this.args = args;
+            this.hash = Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key key && hash == key.hash && Arrays.equals(args, key.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final LinkedHashMap<Key, Scalar> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * MemoCache constructor.
+     *
+     * @param capacity The maximum number of results to keep.
+     */
+    public MemoCache(int capacity) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Scalar> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Creates the cache key for a call.
+     *
+     * @param args  The arguments of the call.
+     * @param count The number of parameters of the function (extra arguments are ignored).
+     * @return The key, or null if any of the arguments cannot be cached.
+     */
+    public static Key key(List<Scalar> args, int count) {
+        var values = new Scalar[count];
+        for (int i = 0; i < count; i++) {
+            Scalar arg = args.get(i);
+            if (!isCacheable(arg)) {
+                return null;
+            }
+
+            values[i] = arg;
+        }
+
+        return new Key(values);
+    }
+
+    /**
+     * Creates the cache key for a call whose arguments are stored in an array.
+     *
+     * @param args   The array that holds the arguments.
+     * @param offset The index of the first argument.
+     * @param count  The number of parameters of the function (extra arguments are ignored).
+     * @return The key, or null if any of the arguments cannot be cached.
+     */
+    public static Key key(Object[] args, int offset, int count) {
+        var values = new Scalar[count];
+        for (int i = 0; i < count; i++) {
+            Scalar arg = (Scalar) args[offset + i];
+            if (!isCacheable(arg)) {
+                return null;
+            }
+
+            values[i] = arg;
+        }
+
+        return new Key(values);
+    }
+
+    /**
+     * Tests if the value can be stored in the cache (as argument or as result).
+     *
+     * @param value The value to test.
+     * @return True if the value is immutable; false otherwise.
+     */
+    public static boolean isCacheable(Scalar value) {
+        if (value == null || value.getType() == null) {
+            return false;
+        }
+
+        return switch (value.getType()) {
+            case BOOL, FLOAT, INT, STRING -> true;
+            case ARRAY, OBJECT, TASK, CHANNEL, STREAM -> false;
+        };
+    }
+
+    /**
+     * Gets the cached result of a call.
+     *
+     * @param key The arguments of the call.
+     * @return The result, or null if it's not cached.
+     */
+    public Scalar get(Key key) {
+        Scalar value = entries.get(key);
+
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return value;
+    }
+
+    /**
+     * Stores the result of a call, if it can be cached.
+     *
+     * @param key   The arguments of the call.
+     * @param value The result of the call.
+     */
+    public void put(Key key, Scalar value) {
+        if (isCacheable(value)) {
+            entries.put(key, value);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: %d, misses: %d, size: %d".formatted(hits, misses, entries.size());
+    }
+}
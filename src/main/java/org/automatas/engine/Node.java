@@ -1,9 +1,13 @@
 package org.automatas.engine;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents the execution result obtained after executing Ast nodes.
  */
 public final class Node {
+    private static final AtomicLong created = new AtomicLong();
+
     private NodeType type;
     private Scalar value;
     private Reference reference;
@@ -14,6 +18,21 @@ public final class Node {
     public Node() {
         type = NodeType.NONE;
         value = null;
+        created.incrementAndGet();
+
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.count(AllocationProfiler.Kind.NODE, AllocationProfiler.NODE_BYTES);
+        }
+    }
+
+    /**
+     * Gets the number of Node instances created so far. Expressions return their value directly, so Nodes are
+     * only created to receive the result of built-in functions.
+     *
+     * @return The number of instances.
+     */
+    public static long getCreatedCount() {
+        return created.get();
     }
 
     /**
@@ -0,0 +1,281 @@
+package org.automatas.engine;
+
+/**
+ * Self-specializing implementation of the arithmetic and comparison operators.
+ * <p>
+ * Every operator Ast starts with the uninitialized node. The first evaluation observes the operand types and
+ * rewrites the site with a node specialized for them (eg: int + int). A specialized node only checks its guard
+ * and computes the result; if the guard fails, the site is rewritten with the generic node, which handles every
+ * combination of types through ScalarOperation and Scalar.compareTo.
+ * <p>
+ * Nodes hold no state, so a single instance of each one is shared by all the sites.
+ */
+public abstract class OperatorNode {
+    public static final OperatorNode UNINITIALIZED = new Uninitialized();
+    private static final OperatorNode GENERIC = new Generic();
+
+    private static final OperatorNode INT_ADD = new IntAdd();
+    private static final OperatorNode INT_SUBTRACT = new IntSubtract();
+    private static final OperatorNode INT_MULTIPLY = new IntMultiply();
+    private static final OperatorNode INT_DIVIDE = new IntDivide();
+    private static final OperatorNode INT_MODULO = new IntModulo();
+    private static final OperatorNode INT_COMPARE = new IntCompare();
+    private static final OperatorNode FLOAT_ADD = new FloatAdd();
+    private static final OperatorNode FLOAT_SUBTRACT = new FloatSubtract();
+    private static final OperatorNode FLOAT_MULTIPLY = new FloatMultiply();
+    private static final OperatorNode FLOAT_DIVIDE = new FloatDivide();
+    private static final OperatorNode FLOAT_COMPARE = new FloatCompare();
+    private static final OperatorNode STRING_CONCAT = new StringConcat();
+    private static final OperatorNode STRING_COMPARE = new StringCompare();
+
+    /**
+     * Evaluates the operator of the site.
+     *
+     * @param site The operator Ast that owns the node.
+     * @param a    The first operand.
+     * @param b    The second operand.
+     * @return The result scalar.
+     */
+    public abstract Scalar execute(Ast site, Scalar a, Scalar b);
+
+    /**
+     * Replaces the node of the site with the generic one and evaluates the operation.
+     */
+    protected static Scalar fallback(Ast site, Scalar a, Scalar b) {
+        site.operator = GENERIC;
+        return GENERIC.execute(site, a, b);
+    }
+
+    private static OperatorNode specialize(AstKind kind, ScalarType a, ScalarType b) {
+        if (a != b) {
+            return GENERIC;
+        }
+
+        return switch (a) {
+            case INT -> switch (kind) {
+                case AST_ADD -> INT_ADD;
+                case AST_SUBTRACT -> INT_SUBTRACT;
+                case AST_MULTIPLY -> INT_MULTIPLY;
+                case AST_DIVIDE -> INT_DIVIDE;
+                case AST_MODULO -> INT_MODULO;
+                case AST_EQUALS, AST_NOT_EQUALS, AST_SMALLER, AST_SMALLER_OR_EQUAL,
+                     AST_GREATER, AST_GREATER_OR_EQUAL -> INT_COMPARE;
+                default -> GENERIC;
+            };
+            case FLOAT -> switch (kind) {
+                case AST_ADD -> FLOAT_ADD;
+                case AST_SUBTRACT -> FLOAT_SUBTRACT;
+                case AST_MULTIPLY -> FLOAT_MULTIPLY;
+                case AST_DIVIDE -> FLOAT_DIVIDE;
+                case AST_EQUALS, AST_NOT_EQUALS, AST_SMALLER, AST_SMALLER_OR_EQUAL,
+                     AST_GREATER, AST_GREATER_OR_EQUAL -> FLOAT_COMPARE;
+                default -> GENERIC;
+            };
+            case STRING -> switch (kind) {
+                case AST_ADD -> STRING_CONCAT;
+                case AST_EQUALS, AST_NOT_EQUALS, AST_SMALLER, AST_SMALLER_OR_EQUAL,
+                     AST_GREATER, AST_GREATER_OR_EQUAL -> STRING_COMPARE;
+                default -> GENERIC;
+            };
+            default -> GENERIC;
+        };
+    }
+
+    /**
+     * Converts the result of a comparison into the bool scalar expected by the operator.
+     *
+     * @param kind  The comparison operator.
+     * @param order The result of the comparison (negative, zero or positive).
+     * @return The bool scalar.
+     */
+    private static Scalar compareResult(AstKind kind, int order) {
+        boolean result = switch (kind) {
+            case AST_EQUALS -> order == 0;
+            case AST_NOT_EQUALS -> order != 0;
+            case AST_SMALLER -> order < 0;
+            case AST_SMALLER_OR_EQUAL -> order <= 0;
+            case AST_GREATER -> order > 0;
+            case AST_GREATER_OR_EQUAL -> order >= 0;
+            default -> throw new IllegalStateException("Unexpected value: " + kind);
+        };
+
+        return Scalar.makeBool(result);
+    }
+
+    private static final class Uninitialized extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            OperatorNode node = specialize(site.kind, a.getType(), b.getType());
+            site.operator = node;
+            return node.execute(site, a, b);
+        }
+    }
+
+    private static final class Generic extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            return switch (site.kind) {
+                case AST_ADD -> ScalarOperation.add(a, b);
+                case AST_SUBTRACT -> ScalarOperation.subtract(a, b);
+                case AST_MULTIPLY -> ScalarOperation.multiply(a, b);
+                case AST_POW -> ScalarOperation.pow(a, b);
+                case AST_DIVIDE -> ScalarOperation.divide(a, b);
+                case AST_MODULO -> ScalarOperation.modulo(a, b);
+                case AST_EQUALS -> Scalar.makeBool(a.equals(b));
+                case AST_NOT_EQUALS -> Scalar.makeBool(!a.equals(b));
+                default -> compareResult(site.kind, a.compareTo(b));
+            };
+        }
+    }
+
+    private static final class IntAdd extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isInteger() && b.isInteger()) {
+                return Scalar.makeInt(a.rawLong() + b.rawLong());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class IntSubtract extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isInteger() && b.isInteger()) {
+                return Scalar.makeInt(a.rawLong() - b.rawLong());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class IntMultiply extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isInteger() && b.isInteger()) {
+                return Scalar.makeInt(a.rawLong() * b.rawLong());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class IntDivide extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isInteger() && b.isInteger()) {
+                return Scalar.makeInt(a.rawLong() / b.rawLong());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class IntModulo extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isInteger() && b.isInteger()) {
+                return Scalar.makeInt(a.rawLong() % b.rawLong());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class IntCompare extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isInteger() && b.isInteger()) {
+                return compareResult(site.kind, Long.compare(a.rawLong(), b.rawLong()));
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class FloatAdd extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isFloat() && b.isFloat()) {
+                return Scalar.makeFloat(a.rawDouble() + b.rawDouble());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class FloatSubtract extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isFloat() && b.isFloat()) {
+                return Scalar.makeFloat(a.rawDouble() - b.rawDouble());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class FloatMultiply extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isFloat() && b.isFloat()) {
+                return Scalar.makeFloat(a.rawDouble() * b.rawDouble());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class FloatDivide extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isFloat() && b.isFloat()) {
+                return Scalar.makeFloat(a.rawDouble() / b.rawDouble());
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class FloatCompare extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isFloat() && b.isFloat()) {
+                return compareResult(site.kind, Double.compare(a.rawDouble(), b.rawDouble()));
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class StringConcat extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isString() && b.isString()) {
+                return Scalar.concat(a, b);
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+
+    private static final class StringCompare extends OperatorNode {
+        @Override
+        public Scalar execute(Ast site, Scalar a, Scalar b) {
+            if (a.isString() && b.isString()) {
+                String op1 = a.toString();
+                String op2 = b.toString();
+
+                int order = switch (site.kind) {
+                    case AST_EQUALS, AST_NOT_EQUALS -> op1.equals(op2) ? 0 : 1;
+                    default -> op1.compareTo(op2);
+                };
+
+                return compareResult(site.kind, order);
+            }
+
+            return fallback(site, a, b);
+        }
+    }
+}
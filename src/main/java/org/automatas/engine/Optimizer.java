@@ -0,0 +1,191 @@
+package org.automatas.engine;
+
+/**
+ * Simplifies the Ast before execution.
+ * <p>
+ * Every literal gets its Scalar built once (arrays of literals too, copied on write when evaluated), and expressions whose operands are all literals (eg: 60 * 60 * 24)
+ * are replaced by the literal of their result. An expression that fails to evaluate (eg: 1 / 0) is left as is,
+ * so the error is still reported at runtime, when (and only if) the expression is reached.
+ */
+public final class Optimizer {
+    /**
+     * Optimizes a statement list (the top-level code or the body of a function) in place.
+     *
+     * @param root The statement list to optimize.
+     */
+    public static void optimize(Ast root) {
+        assert root.kind == AstKind.AST_STATEMENT_LIST;
+        visit(root);
+    }
+
+    private static Ast visit(Ast ast) {
+        for (int i = 0; i < ast.child.length; i++) {
+            if (ast.child[i] != null) {
+                ast.child[i] = visit(ast.child[i]);
+            }
+        }
+
+        if (ast.kind == AstKind.AST_SCALAR) {
+            if (ast.constant == null) {
+                ast.constant = Scalar.make(ast.value, ast.type);
+            }
+
+            return ast;
+        }
+
+        if (ast.kind == AstKind.AST_ARRAY) {
+            ast.constant = literalArray(ast);
+            return ast;
+        }
+
+        Scalar value;
+        try {
+            value = fold(ast);
+        } catch (RuntimeException e) {
+            // Leave it for runtime
+            return ast;
+        }
+
+        if (value == null) {
+            return ast;
+        }
+
+        Ast literal = Ast.scalar(value.getRawValue(), value.getType()).at(ast.line, ast.column);
+        literal.constant = value;
+        return literal;
+    }
+
+    /**
+     * Evaluates an expression whose operands are literals.
+     *
+     * @param ast The expression to evaluate.
+     * @return The result scalar, or null if the expression cannot be folded.
+     */
+    private static Scalar fold(Ast ast) {
+        return switch (ast.kind) {
+            case AST_ADD, AST_SUBTRACT, AST_MULTIPLY, AST_POW, AST_DIVIDE, AST_MODULO,
+                 AST_EQUALS, AST_NOT_EQUALS, AST_SMALLER, AST_SMALLER_OR_EQUAL,
+                 AST_GREATER, AST_GREATER_OR_EQUAL -> foldBinaryOperation(ast);
+            case AST_AND -> foldLogic(ast, false);
+            case AST_OR -> foldLogic(ast, true);
+            case AST_BOOL_NOT -> {
+                Scalar value = literal(ast.child[0]);
+                yield value == null ? null : Scalar.makeBool(!value.toBoolean());
+            }
+            case AST_LEN -> {
+                Scalar value = literal(ast.child[0]);
+                yield value == null || !value.isString() ? null : Scalar.makeInt(value.toString().length());
+            }
+            case AST_TYPEOF -> {
+                Scalar value = literal(ast.child[0]);
+                yield value == null ? null : Scalar.makeString(value.getType().toString());
+            }
+            case AST_AS -> foldTypeCast(ast);
+            case AST_IS -> {
+                Scalar value = literal(ast.child[0]);
+                ScalarType target = ScalarType.getType(ast.child[1].value.toString());
+                yield value == null || target == null ? null : Scalar.makeBool(value.getType() == target);
+            }
+            default -> null;
+        };
+    }
+
+    private static Scalar foldBinaryOperation(Ast ast) {
+        Scalar a = literal(ast.child[0]);
+        Scalar b = literal(ast.child[1]);
+
+        if (a == null || b == null) {
+            return null;
+        }
+
+        return switch (ast.kind) {
+            case AST_ADD -> ScalarOperation.add(a, b);
+            case AST_SUBTRACT -> ScalarOperation.subtract(a, b);
+            case AST_MULTIPLY -> ScalarOperation.multiply(a, b);
+            case AST_POW -> ScalarOperation.pow(a, b);
+            case AST_DIVIDE -> ScalarOperation.divide(a, b);
+            case AST_MODULO -> ScalarOperation.modulo(a, b);
+            case AST_EQUALS -> Scalar.makeBool(a.equals(b));
+            case AST_NOT_EQUALS -> Scalar.makeBool(!a.equals(b));
+            case AST_SMALLER -> Scalar.makeBool(a.compareTo(b) < 0);
+            case AST_SMALLER_OR_EQUAL -> Scalar.makeBool(a.compareTo(b) <= 0);
+            case AST_GREATER -> Scalar.makeBool(a.compareTo(b) > 0);
+            case AST_GREATER_OR_EQUAL -> Scalar.makeBool(a.compareTo(b) >= 0);
+            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
+        };
+    }
+
+    /**
+     * Folds a short-circuit operator. The right-hand side is dropped if the left-hand side decides the result,
+     * since it would never be evaluated at runtime.
+     *
+     * @param ast        The AST_AND or AST_OR node.
+     * @param shortValue The value of the left-hand side that decides the result.
+     * @return The result scalar, or null if the expression cannot be folded.
+     */
+    private static Scalar foldLogic(Ast ast, boolean shortValue) {
+        Scalar a = literal(ast.child[0]);
+        if (a == null) {
+            return null;
+        }
+
+        if (a.toBoolean() == shortValue) {
+            return Scalar.makeBool(shortValue);
+        }
+
+        Scalar b = literal(ast.child[1]);
+        return b == null ? null : Scalar.makeBool(b.toBoolean());
+    }
+
+    private static Scalar foldTypeCast(Ast ast) {
+        Scalar value = literal(ast.child[0]);
+        ScalarType target = ScalarType.getType(ast.child[1].value.toString());
+
+        if (value == null || target == null) {
+            return null;
+        }
+
+        // Arrays are mutable and objects cannot be casted: both are left for runtime
+        return switch (target) {
+            case BOOL -> Scalar.makeBool(value.toBoolean());
+            case FLOAT -> Scalar.makeFloat(value.toDouble());
+            case INT -> Scalar.makeInt(value.toLong());
+            case STRING -> Scalar.makeString(value.toString());
+            case ARRAY, OBJECT, TASK, CHANNEL, STREAM -> null;
+        };
+    }
+
+    private static Scalar literal(Ast ast) {
+        return ast.kind == AstKind.AST_SCALAR ? ast.constant : null;
+    }
+
+    /**
+     * Builds the template of an array literal whose elements are all literals (eg: [1, 2, 3]).
+     *
+     * @param ast The AST_ARRAY node.
+     * @return The array scalar, or null if an element is not a literal (or the array is empty).
+     */
+    private static Scalar literalArray(Ast ast) {
+        if (ast.child.length == 0) {
+            return null;
+        }
+
+        var values = new ScalarArray(ast.child.length);
+        for (Ast child : ast.child) {
+            Scalar value = child != null ? literal(child) : null;
+            if (value == null) {
+                return null;
+            }
+
+            values.add(value);
+        }
+
+        return Scalar.makeArray(values);
+    }
+
+    /**
+     * Static class.
+     */
+    private Optimizer() {
+    }
+}
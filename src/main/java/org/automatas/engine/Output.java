@@ -0,0 +1,231 @@
+package org.automatas.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The buffered sink written by print() and printf().
+ * <p>
+ * Text is encoded (as UTF-8) straight into a large buffer, which is written to the stream or file only as the
+ * flush policy requires, instead of on every call. Executions always flush their output when they end, even
+ * when they end with an error. The methods are synchronized, since tasks and parallel loops share the output
+ * of the execution that started them.
+ */
+public final class Output {
+    /**
+     * When the buffered output is written.
+     */
+    public enum FlushPolicy {
+        /* After every line (eg: for an interactive terminal) */
+        LINE,
+        /* When the buffer is full */
+        SIZE,
+        /* When the execution ends: the buffer grows to hold the whole output */
+        EXIT;
+
+        /**
+         * Gets the policy used when none is set: LINE for a terminal, SIZE otherwise.
+         *
+         * @return The default policy.
+         */
+        public static FlushPolicy byDefault() {
+            return System.console() != null ? LINE : SIZE;
+        }
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream stream;
+    private final FileChannel file;
+    private final FlushPolicy policy;
+
+    private byte[] buffer;
+    private int count;
+
+    /**
+     * Creates an output that writes to a stream. The stream is flushed with the output, but never closed.
+     *
+     * @param stream     The stream to write.
+     * @param policy     When the output is written.
+     * @param bufferSize The size of the buffer, in bytes.
+     */
+    public Output(OutputStream stream, FlushPolicy policy, int bufferSize) {
+        this(stream, null, policy, bufferSize);
+    }
+
+    private Output(OutputStream stream, FileChannel file, FlushPolicy policy, int bufferSize) {
+        this.stream = stream;
+        this.file = file;
+        this.policy = policy;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Creates an output that writes to a file, replacing its content.
+     *
+     * @param path       The path of the file.
+     * @param policy     When the output is written.
+     * @param bufferSize The size of the buffer, in bytes.
+     * @return The output (it must be closed).
+     * @throws IOException If the file cannot be opened.
+     */
+    public static Output toFile(Path path, FlushPolicy policy, int bufferSize) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        return new Output(null, channel, policy, bufferSize);
+    }
+
+    public FlushPolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized void print(String text) {
+        append(text);
+
+        if (policy == FlushPolicy.LINE && text.indexOf('\n') >= 0) {
+            flush();
+        }
+    }
+
+    public synchronized void println(String text) {
+        append(text);
+        append('\n');
+
+        if (policy == FlushPolicy.LINE) {
+            flush();
+        }
+    }
+
+    public void printf(String format, Object... args) {
+        print(String.format(format, args));
+    }
+
+    /**
+     * Writes encoded text (eg: the output of a parallel foreach worker).
+     *
+     * @param bytes The UTF-8 bytes to write.
+     */
+    public synchronized void write(byte[] bytes) {
+        append(bytes);
+    }
+
+    /**
+     * Writes the buffered output.
+     */
+    public synchronized void flush() {
+        writeBuffer();
+
+        if (stream != null) {
+            try {
+                stream.flush();
+            } catch (IOException e) {
+                throw writeFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered output, and closes the file (streams are left open).
+     */
+    public synchronized void close() {
+        flush();
+
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw writeFailed(e);
+            }
+        }
+    }
+
+    private void append(String text) {
+        if (text == null) {
+            // Like a PrintStream (eg: the string read by input() at the end of the input)
+            text = "null";
+        }
+
+        int length = text.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+
+            if (c >= 0x80) {
+                // The rest of the text needs the encoder; what precedes is plain ASCII
+                append(text.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            append(c);
+        }
+    }
+
+    private void append(char ascii) {
+        if (count == buffer.length) {
+            makeRoom(1);
+        }
+
+        buffer[count++] = (byte) ascii;
+    }
+
+    private void append(byte[] bytes) {
+        if (bytes.length > buffer.length - count) {
+            makeRoom(bytes.length);
+
+            if (bytes.length > buffer.length) {
+                // Larger than the buffer itself: write it through
+                writeFully(bytes, bytes.length);
+                return;
+            }
+        }
+
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Makes room for the given number of bytes, writing the buffer (or growing it, for the EXIT policy).
+     */
+    private void makeRoom(int needed) {
+        if (policy == FlushPolicy.EXIT) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + needed));
+            return;
+        }
+
+        writeBuffer();
+    }
+
+    private void writeBuffer() {
+        if (count > 0) {
+            writeFully(buffer, count);
+            count = 0;
+        }
+    }
+
+    private void writeFully(byte[] bytes, int length) {
+        try {
+            if (file == null) {
+                stream.write(bytes, 0, length);
+                return;
+            }
+
+            ByteBuffer source = ByteBuffer.wrap(bytes, 0, length);
+            while (source.hasRemaining()) {
+                file.write(source);
+            }
+        } catch (IOException e) {
+            throw writeFailed(e);
+        }
+    }
+
+    private static RuntimeException writeFailed(IOException e) {
+        return new RuntimeException("Fatal OS Exception: output write failed.", e);
+    }
+}
@@ -0,0 +1,275 @@
+package org.automatas.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a parallel foreach (AST_PARALLEL_FOREACH) on the common fork/join pool.
+ * <p>
+ * The elements are split into consecutive chunks. Every chunk runs with its own copy of the frame of the loop,
+ * its own copies of the arrays and struct instances of the outer variables used by the body (see Scalar.isolate();
+ * arrays are copied on write), and its own Context, so the workers only share the elements and the immutable
+ * values. Changes made to the copies (eg: through a local alias, or by a called function) stay within the chunk.
+ * The Resolver rejects writes to the variables declared outside the loop, except for the reduction variables:
+ * each chunk starts them at the identity of their operator, and the partial results are combined in the order of
+ * the chunks when the loop ends. An ordered loop buffers the output of every chunk, and writes it in the order of
+ * the elements.
+ */
+public final class ParallelLoop {
+    /* Chunks per thread of the pool, so threads that finish early can take work from the others */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /* Initial size of the output buffer of the chunks of ordered loops */
+    private static final int CHUNK_BUFFER_SIZE = 1024;
+
+    /**
+     * Runs the body of the loop for a range of elements.
+     */
+    @FunctionalInterface
+    public interface Worker {
+        /**
+         * Runs the body once per element, setting the loop variable first.
+         *
+         * @param context  The context of the chunk.
+         * @param scope    The scope of the chunk (a copy of the frame of the loop).
+         * @param elements The elements of the array.
+         * @param from     The index of the first element of the chunk.
+         * @param to       The index past the last element of the chunk.
+         */
+        void run(Context context, ScopeManager scope, Scalar[] elements, int from, int to);
+    }
+
+    private final Scalar[] elements;
+    private final Worker worker;
+    private final boolean ordered;
+    private final Output out;
+    private final Chunk[] chunks;
+
+    /* The index of the first chunk that failed; the chunks after it are skipped */
+    private final AtomicInteger failure = new AtomicInteger(Integer.MAX_VALUE);
+
+    /* The index of the next chunk whose output must be written (ordered loops) */
+    private int written;
+
+    /**
+     * Runs a parallel foreach.
+     *
+     * @param loop    The AST_PARALLEL_FOREACH node.
+     * @param array   The elements to iterate.
+     * @param scope   The scope of the code that runs the loop; receives the values of the reduction variables.
+     * @param context The context of the code that runs the loop.
+     * @param worker  Runs the body of the loop.
+     */
+    public static void run(Ast loop, List<Scalar> array, ScopeManager scope, Context context, Worker worker) {
+        Ast[] reductions = loop.child[3].child;
+        int[] slots = new int[reductions.length];
+
+        for (int i = 0; i < reductions.length; i++) {
+            Ast var = reductions[i].child[0];
+            slots[i] = scope.findSlot(var);
+
+            if (slots[i] < 0) {
+                fatalError("undefined variable '%s'.", var.value);
+            }
+
+            // Fail before running anything if the variable cannot be reduced
+            identity(reductions[i], scope.get(slots[i]));
+        }
+
+        // Snapshot the elements: the array may be shared with other code
+        var elements = array.toArray(new Scalar[0]);
+        if (elements.length == 0) {
+            return;
+        }
+
+        var parallelLoop = new ParallelLoop(loop, elements, context, worker);
+        parallelLoop.execute(scope, loop.sharedSlots, reductions, slots);
+
+        for (int i = 0; i < reductions.length; i++) {
+            Scalar result = scope.get(slots[i]);
+            for (Chunk chunk : parallelLoop.chunks) {
+                result = combine(reductions[i], result, chunk.scope.get(slots[i]));
+            }
+
+            scope.set(slots[i], result);
+        }
+    }
+
+    private ParallelLoop(Ast loop, Scalar[] elements, Context context, Worker worker) {
+        this.elements = elements;
+        this.worker = worker;
+        this.ordered = loop.child[4].value.equals(Boolean.TRUE);
+        this.out = context.getOut();
+
+        int threads = ForkJoinPool.getCommonPoolParallelism();
+        int count = Math.min(elements.length, threads * CHUNKS_PER_THREAD);
+        this.chunks = new Chunk[count];
+
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder over the first chunks
+            int from = (int) ((long) elements.length * i / count);
+            int to = (int) ((long) elements.length * (i + 1) / count);
+            chunks[i] = new Chunk(i, from, to, context);
+        }
+    }
+
+    private void execute(ScopeManager scope, int[] sharedSlots, Ast[] reductions, int[] slots) {
+        List<Chunk> tasks = new ArrayList<>(chunks.length);
+        var shared = new Scalar[sharedSlots.length];
+
+        for (Chunk chunk : chunks) {
+            chunk.scope = scope.fork();
+
+            // Copied before the workers start, in the calling thread
+            for (int i = 0; i < sharedSlots.length; i++) {
+                shared[i] = chunk.scope.get(sharedSlots[i]);
+            }
+
+            Scalar.isolateAll(shared);
+            for (int i = 0; i < sharedSlots.length; i++) {
+                // Only the arrays and instances are copied (an empty slot must stay undefined)
+                if (shared[i] != chunk.scope.get(sharedSlots[i])) {
+                    chunk.scope.set(sharedSlots[i], shared[i]);
+                }
+            }
+
+            // Every chunk gets its own identity values (arrays are mutable)
+            for (int i = 0; i < slots.length; i++) {
+                chunk.scope.set(slots[i], identity(reductions[i], scope.get(slots[i])));
+            }
+
+            tasks.add(chunk);
+        }
+
+        // Runs one of the chunks in the calling thread (the common pool takes the others)
+        ForkJoinTask.invokeAll(tasks);
+
+        // Report the error of the first failed chunk, as the sequential loop would
+        int failed = failure.get();
+        if (failed != Integer.MAX_VALUE) {
+            Throwable error = chunks[failed].error;
+            if (error instanceof Error e) {
+                throw e;
+            }
+
+            throw (RuntimeException) error;
+        }
+    }
+
+    /**
+     * Writes the buffered output of the completed chunks, in order. The output stops at the first failed chunk.
+     *
+     * @param chunk The chunk that completed.
+     */
+    private synchronized void completed(Chunk chunk) {
+        chunk.done = true;
+
+        while (written < chunks.length && chunks[written].done) {
+            Chunk next = chunks[written];
+            next.context.getOut().flush();
+            out.write(next.buffer.toByteArray());
+            next.buffer = null;
+
+            written = next.error != null ? chunks.length : written + 1;
+        }
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /* Chunks are never serialized (RecursiveAction is Serializable) */
+        private final int index;
+        private final int from;
+        private final int to;
+        private final transient Context context;
+        private transient ByteArrayOutputStream buffer;
+        private transient ScopeManager scope;
+        private Throwable error;
+        private boolean done;
+
+        private Chunk(int index, int from, int to, Context parent) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+
+            if (ordered) {
+                this.buffer = new ByteArrayOutputStream();
+                this.context = parent.fork(new Output(buffer, Output.FlushPolicy.EXIT, CHUNK_BUFFER_SIZE));
+            } else {
+                this.context = parent.fork(out);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // A chunk after a failed one would not have run in the sequential loop
+                if (failure.get() > index) {
+                    worker.run(context, scope, elements, from, to);
+                }
+            } catch (RuntimeException | Error e) {
+                error = e;
+                failure.accumulateAndGet(index, Math::min);
+            } finally {
+                if (ordered) {
+                    completed(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the value a reduction variable starts at in every chunk.
+     *
+     * @param reduction The AST_REDUCTION node.
+     * @param initial   The value of the variable before the loop.
+     * @return The identity of the operator for the type of the variable.
+     */
+    private static Scalar identity(Ast reduction, Scalar initial) {
+        String operator = reduction.child[1].value.toString();
+        ScalarType type = initial != null ? initial.getType() : null;
+
+        Scalar identity = null;
+        if (type != null && operator.equals("+")) {
+            identity = switch (type) {
+                case INT -> Scalar.makeInt(0);
+                case FLOAT -> Scalar.makeFloat(0.0);
+                case STRING -> Scalar.makeString("");
+                case ARRAY -> Scalar.makeArray(new ScalarArray());
+                default -> null;
+            };
+        } else if (type != null && operator.equals("*")) {
+            identity = switch (type) {
+                case INT -> Scalar.makeInt(1);
+                case FLOAT -> Scalar.makeFloat(1.0);
+                default -> null;
+            };
+        }
+
+        if (identity == null) {
+            fatalError("Cannot reduce variable '%s' of type '%s' with '%s'.", reduction.child[0].value, type, operator);
+        }
+
+        return identity;
+    }
+
+    private static Scalar combine(Ast reduction, Scalar result, Scalar partial) {
+        if (partial == null) {
+            fatalError("Reduction variable '%s' was unset.", reduction.child[0].value);
+        }
+
+        return reduction.child[1].value.equals("+")
+                ? ScalarOperation.add(result, partial)
+                : ScalarOperation.multiply(result, partial);
+    }
+
+    private static void fatalError(String fmt, Object... args) {
+        String message = "Fatal Error: " + fmt.formatted(args);
+        throw new RuntimeException(message);
+    }
+}
@@ -0,0 +1,273 @@
+package org.automatas.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Stores parsed files in a directory, so running an unchanged source again skips lexing and parsing.
+ * <p>
+ * Entries are named after a SHA-256 hash of the source and the engine version (which includes the names of the
+ * Ast kinds, so a grammar change never reads an old entry). Each entry holds a checksum of its content; entries
+ * that cannot be read are ignored and the source is parsed again. The cache only holds what the parser
+ * produces: the annotations set by the Optimizer, the Resolver and the Linker are computed again after loading.
+ */
+public final class ParseCache {
+    public static final String ENGINE_VERSION = "1.0-SNAPSHOT";
+
+    private static final int MAGIC = 0x41535443; /* "ASTC" */
+    private static final String EXTENSION = ".astc";
+
+    /* The layout of the entries (2: the nodes hold their source position) */
+    private static final int FORMAT = 2;
+
+    /* Marks a missing child (eg: the empty parts of a for statement) */
+    private static final int NULL_AST = -1;
+
+    private static final AstKind[] KINDS = AstKind.values();
+    private static final ScalarType[] TYPES = ScalarType.values();
+
+    private final Path directory;
+
+    /**
+     * ParseCache constructor.
+     *
+     * @param directory The directory of the cache files (created when the first entry is stored).
+     */
+    public ParseCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Computes the key of a source.
+     *
+     * @param source The content of the source file.
+     * @return The key (a hex string).
+     */
+    public String key(ByteBuffer source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ENGINE_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) FORMAT);
+            digest.update(Arrays.toString(KINDS).getBytes(StandardCharsets.UTF_8));
+            digest.update(Arrays.toString(TYPES).getBytes(StandardCharsets.UTF_8));
+            digest.update(source);
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads a parsed file.
+     *
+     * @param key The key of the source.
+     * @return The parsed file, or null if there's no valid entry for the key.
+     */
+    public ParsedFile load(String key) {
+        Path file = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (var in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC || !ENGINE_VERSION.equals(in.readUTF())) {
+                return null;
+            }
+
+            long checksum = in.readLong();
+            byte[] content = in.readNBytes(in.readInt());
+            if (in.read() != -1 || checksum != checksum(content)) {
+                return null;
+            }
+
+            return readContent(new DataInputStream(new ByteArrayInputStream(content)));
+        } catch (IOException | RuntimeException e) {
+            // Truncated or corrupted entry: parse the source again
+            return null;
+        }
+    }
+
+    /**
+     * Stores a parsed file. Errors are ignored: the cache is only an optimization.
+     *
+     * @param key    The key of the source.
+     * @param parsed The parsed file.
+     */
+    public void store(String key, ParsedFile parsed) {
+        try {
+            var buffer = new ByteArrayOutputStream();
+            writeContent(new DataOutputStream(buffer), parsed);
+            byte[] content = buffer.toByteArray();
+
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+
+            try (var out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(ENGINE_VERSION);
+                out.writeLong(checksum(content));
+                out.writeInt(content.length);
+                out.write(content);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            // Concurrent runs of the same source may race here; any of the complete entries is valid
+            Files.move(temp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Leave the source uncached
+        }
+    }
+
+    private static long checksum(byte[] content) {
+        var crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static void writeContent(DataOutputStream out, ParsedFile parsed) throws IOException {
+        writeAst(out, parsed.getRoot());
+
+        out.writeInt(parsed.getStructs().size());
+        for (Map.Entry<String, Ast> entry : parsed.getStructs().entrySet()) {
+            writeString(out, entry.getKey());
+            writeAst(out, entry.getValue());
+        }
+
+        out.writeInt(parsed.getFunctions().size());
+        for (UserFunction func : parsed.getFunctions().values()) {
+            writeString(out, func.getName());
+
+            String[] params = func.getParameters();
+            out.writeInt(params.length);
+            for (String param : params) {
+                writeString(out, param);
+            }
+
+            writeAst(out, func.getBody());
+        }
+    }
+
+    private static ParsedFile readContent(DataInputStream in) throws IOException {
+        Ast root = readAst(in);
+
+        int structCount = in.readInt();
+        HashMap<String, Ast> structs = HashMap.newHashMap(structCount);
+        for (int i = 0; i < structCount; i++) {
+            structs.put(readString(in), readAst(in));
+        }
+
+        int functionCount = in.readInt();
+        HashMap<String, UserFunction> functions = HashMap.newHashMap(functionCount);
+        for (int i = 0; i < functionCount; i++) {
+            String name = readString(in);
+
+            String[] params = new String[in.readInt()];
+            for (int j = 0; j < params.length; j++) {
+                params[j] = readString(in);
+            }
+
+            functions.put(name, new UserFunction(name, params, readAst(in)));
+        }
+
+        return new ParsedFile(root, structs, functions);
+    }
+
+    private static void writeAst(DataOutputStream out, Ast ast) throws IOException {
+        if (ast == null) {
+            out.writeShort(NULL_AST);
+            return;
+        }
+
+        out.writeShort(ast.kind.ordinal());
+        out.writeInt(ast.line);
+        out.writeInt(ast.column);
+
+        switch (ast.kind) {
+            case AST_SCALAR:
+                out.writeByte(ast.type.ordinal());
+                switch (ast.type) {
+                    case BOOL -> out.writeBoolean((Boolean) ast.value);
+                    case FLOAT -> out.writeDouble((Double) ast.value);
+                    case INT -> out.writeLong((Long) ast.value);
+                    default -> writeString(out, ast.value.toString());
+                }
+                break;
+            case AST_IDENTIFIER:
+                writeString(out, ast.value.toString());
+                break;
+            default:
+                out.writeInt(ast.child.length);
+                for (Ast child : ast.child) {
+                    writeAst(out, child);
+                }
+        }
+    }
+
+    private static Ast readAst(DataInputStream in) throws IOException {
+        int ordinal = in.readShort();
+        if (ordinal == NULL_AST) {
+            return null;
+        }
+
+        AstKind kind = KINDS[ordinal];
+        int line = in.readInt();
+        int column = in.readInt();
+
+        switch (kind) {
+            case AST_SCALAR:
+                ScalarType type = TYPES[in.readByte()];
+                Object value = switch (type) {
+                    case BOOL -> in.readBoolean();
+                    case FLOAT -> in.readDouble();
+                    case INT -> in.readLong();
+                    default -> readString(in);
+                };
+
+                return Ast.scalar(value, type).at(line, column);
+            case AST_IDENTIFIER:
+                return Ast.identifier(readString(in)).at(line, column);
+            default:
+                Ast[] child = new Ast[in.readInt()];
+                for (int i = 0; i < child.length; i++) {
+                    child[i] = readAst(in);
+                }
+
+                return Ast.make(kind, child).at(line, column);
+        }
+    }
+
+    /* writeUTF() is limited to 64KB, which a string literal may exceed */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new IOException("Unexpected end of cache entry.");
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,37 @@
+package org.automatas.engine;
+
+import java.util.HashMap;
+
+/**
+ * The result of parsing a source file: the top-level statements and the declarations of structs and functions.
+ */
+public final class ParsedFile {
+    private final Ast root;
+    private final HashMap<String, Ast> structs;
+    private final HashMap<String, UserFunction> functions;
+
+    /**
+     * ParsedFile constructor.
+     *
+     * @param root      The root Ast (top-level statement list).
+     * @param structs   The member lists of the declared structs, indexed by name.
+     * @param functions The declared functions, indexed by name.
+     */
+    public ParsedFile(Ast root, HashMap<String, Ast> structs, HashMap<String, UserFunction> functions) {
+        this.root = root;
+        this.structs = structs;
+        this.functions = functions;
+    }
+
+    public Ast getRoot() {
+        return root;
+    }
+
+    public HashMap<String, Ast> getStructs() {
+        return structs;
+    }
+
+    public HashMap<String, UserFunction> getFunctions() {
+        return functions;
+    }
+}
@@ -0,0 +1,311 @@
+package org.automatas.engine;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the executions of a script and the time they take, per kind of Ast node, per source line and per user
+ * function (see Executor.setProfiling()).
+ * <p>
+ * Every Interpreter of an execution (including the ones of its tasks and parallel loops) records with its own
+ * Recorder, which is merged into the Profiler when the Interpreter ends. The self time of an entry excludes the
+ * time of the nodes (or calls) nested in it; the total time counts recursive and nested runs of the same entry only
+ * once. Times include the overhead of the measure, so they are meant to be compared with each other.
+ */
+public final class Profiler {
+    /* The number of lines printed by printReport() */
+    private static final int REPORT_LINES = 20;
+
+    private final EnumMap<AstKind, Entry> kinds = new EnumMap<>(AstKind.class);
+    private final HashMap<Integer, Entry> lines = new HashMap<>();
+    private final HashMap<String, Entry> functions = new HashMap<>();
+
+    /**
+     * The measures of a kind of node, a line or a function.
+     */
+    public static final class Entry {
+        private final String name;
+        private long count;
+        private long selfNanos;
+        private long totalNanos;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the number of executions (nodes run, or calls).
+         *
+         * @return The count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getSelfNanos() {
+            return selfNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        private void add(long count, long selfNanos, long totalNanos) {
+            this.count += count;
+            this.selfNanos += selfNanos;
+            this.totalNanos += totalNanos;
+        }
+    }
+
+    /**
+     * Gets the measures per kind of Ast node.
+     *
+     * @return The entries, by decreasing self time.
+     */
+    public synchronized List<Entry> getKinds() {
+        return ranked(kinds.values());
+    }
+
+    /**
+     * Gets the measures per source line. Blocks and nodes without a position count for the line of their parent
+     * (so the body of a function counts for the line of the call).
+     *
+     * @return The entries, named "line N", by decreasing self time.
+     */
+    public synchronized List<Entry> getLines() {
+        return ranked(lines.values());
+    }
+
+    /**
+     * Gets the measures per user function. The self time of a function excludes the time of the functions it calls.
+     *
+     * @return The entries, by decreasing self time.
+     */
+    public synchronized List<Entry> getFunctions() {
+        return ranked(functions.values());
+    }
+
+    /**
+     * Prints the functions, the lines and the kinds of nodes that took the most time.
+     *
+     * @param out The stream to write.
+     */
+    public void printReport(PrintStream out) {
+        out.println("Profile (times in milliseconds, by self time)");
+        printSection(out, "Functions", getFunctions());
+        printSection(out, "Lines", getLines());
+        printSection(out, "Ast kinds", getKinds());
+    }
+
+    private static void printSection(PrintStream out, String title, List<Entry> entries) {
+        out.println();
+        out.printf("%-28s %12s %12s %12s%n", title, "count", "self", "total");
+
+        for (Entry entry : entries.subList(0, Math.min(entries.size(), REPORT_LINES))) {
+            out.printf("  %-26s %12d %12.3f %12.3f%n", entry.name, entry.count,
+                    entry.selfNanos / 1e6, entry.totalNanos / 1e6);
+        }
+
+        if (entries.size() > REPORT_LINES) {
+            out.printf("  (%d more)%n", entries.size() - REPORT_LINES);
+        }
+    }
+
+    private static List<Entry> ranked(Iterable<Entry> entries) {
+        var list = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            // Copies, so the caller never sees the merges of running workers
+            var copy = new Entry(entry.name);
+            copy.add(entry.count, entry.selfNanos, entry.totalNanos);
+            list.add(copy);
+        }
+
+        list.sort(Comparator.comparingLong(Entry::getSelfNanos).reversed());
+        return list;
+    }
+
+    /**
+     * Creates the recorder of an Interpreter.
+     *
+     * @return The recorder (used by a single thread).
+     */
+    Recorder newRecorder() {
+        return new Recorder();
+    }
+
+    private synchronized void merge(Recorder recorder) {
+        for (AstKind kind : AstKind.values()) {
+            int k = kind.ordinal();
+            if (recorder.kindCount[k] > 0) {
+                kinds.computeIfAbsent(kind, key -> new Entry(key.toString()))
+                        .add(recorder.kindCount[k], recorder.kindSelf[k], recorder.kindTotal[k]);
+            }
+        }
+
+        for (int line = 0; line < recorder.lineCount.length; line++) {
+            if (recorder.lineCount[line] > 0) {
+                lines.computeIfAbsent(line, key -> new Entry(key > 0 ? "line " + key : "(no line)"))
+                        .add(recorder.lineCount[line], recorder.lineSelf[line], recorder.lineTotal[line]);
+            }
+        }
+
+        for (Map.Entry<UserFunction, long[]> function : recorder.functions.entrySet()) {
+            long[] measures = function.getValue();
+            functions.computeIfAbsent(function.getKey().getName(), Entry::new)
+                    .add(measures[COUNT], measures[SELF], measures[TOTAL]);
+        }
+    }
+
+    /* The measures of a function in a Recorder */
+    private static final int COUNT = 0;
+    private static final int SELF = 1;
+    private static final int TOTAL = 2;
+    private static final int ACTIVE = 3;
+
+    /**
+     * Records the nodes run by an Interpreter: enter() and exit() surround every node, enterFunction() and
+     * exitFunction() every call to a user function. Not thread-safe.
+     */
+    final class Recorder {
+        private final long[] kindCount = new long[AstKind.values().length];
+        private final long[] kindSelf = new long[kindCount.length];
+        private final long[] kindTotal = new long[kindCount.length];
+        private final int[] kindActive = new int[kindCount.length];
+
+        private long[] lineCount = new long[64];
+        private long[] lineSelf = new long[64];
+        private long[] lineTotal = new long[64];
+        private int[] lineActive = new int[64];
+
+        private final IdentityHashMap<UserFunction, long[]> functions = new IdentityHashMap<>();
+
+        /* The nodes being run */
+        private AstKind[] nodeKind = new AstKind[64];
+        private int[] nodeLine = new int[64];
+        private long[] nodeStart = new long[64];
+        private long[] nodeChildren = new long[64];
+        private int depth;
+
+        /* The calls being run */
+        private long[][] callMeasures = new long[16][];
+        private long[] callStart = new long[16];
+        private long[] callChildren = new long[16];
+        private int callDepth;
+
+        private Recorder() {
+        }
+
+        void enter(Ast ast) {
+            if (depth == nodeKind.length) {
+                int size = depth * 2;
+                nodeKind = Arrays.copyOf(nodeKind, size);
+                nodeLine = Arrays.copyOf(nodeLine, size);
+                nodeStart = Arrays.copyOf(nodeStart, size);
+                nodeChildren = Arrays.copyOf(nodeChildren, size);
+            }
+
+            // Nodes without a position (eg: folded constants) count for the line of their parent, and so do blocks
+            // (their position is the one of their first statement)
+            int line = depth == 0 ? 0 : nodeLine[depth - 1];
+            if (ast.line > 0 && ast.kind != AstKind.AST_STATEMENT_LIST) {
+                line = ast.line;
+            }
+
+            if (line >= lineCount.length) {
+                growLines(line);
+            }
+
+            kindActive[ast.kind.ordinal()]++;
+            lineActive[line]++;
+
+            nodeKind[depth] = ast.kind;
+            nodeLine[depth] = line;
+            nodeChildren[depth] = 0;
+            nodeStart[depth++] = System.nanoTime();
+        }
+
+        void exit() {
+            int d = --depth;
+            long total = System.nanoTime() - nodeStart[d];
+            long self = total - nodeChildren[d];
+
+            if (d > 0) {
+                nodeChildren[d - 1] += total;
+            }
+
+            int k = nodeKind[d].ordinal();
+            kindCount[k]++;
+            kindSelf[k] += self;
+            if (--kindActive[k] == 0) {
+                kindTotal[k] += total;
+            }
+
+            int line = nodeLine[d];
+            lineCount[line]++;
+            lineSelf[line] += self;
+            if (--lineActive[line] == 0) {
+                lineTotal[line] += total;
+            }
+        }
+
+        void enterFunction(UserFunction func) {
+            if (callDepth == callStart.length) {
+                int size = callDepth * 2;
+                callMeasures = Arrays.copyOf(callMeasures, size);
+                callStart = Arrays.copyOf(callStart, size);
+                callChildren = Arrays.copyOf(callChildren, size);
+            }
+
+            long[] measures = functions.computeIfAbsent(func, key -> new long[4]);
+            measures[ACTIVE]++;
+
+            callMeasures[callDepth] = measures;
+            callChildren[callDepth] = 0;
+            callStart[callDepth++] = System.nanoTime();
+        }
+
+        void exitFunction() {
+            int d = --callDepth;
+            long total = System.nanoTime() - callStart[d];
+
+            if (d > 0) {
+                callChildren[d - 1] += total;
+            }
+
+            long[] measures = callMeasures[d];
+            callMeasures[d] = null;
+
+            measures[COUNT]++;
+            measures[SELF] += total - callChildren[d];
+            if (--measures[ACTIVE] == 0) {
+                measures[TOTAL] += total;
+            }
+        }
+
+        /**
+         * Adds the measures to the Profiler. The nodes and calls still open (after an error) are not counted.
+         */
+        void finish() {
+            merge(this);
+        }
+
+        private void growLines(int line) {
+            int size = Math.max(lineCount.length * 2, line + 1);
+            lineCount = Arrays.copyOf(lineCount, size);
+            lineSelf = Arrays.copyOf(lineSelf, size);
+            lineTotal = Arrays.copyOf(lineTotal, size);
+            lineActive = Arrays.copyOf(lineActive, size);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.automatas.engine;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the user functions whose result depends only on their arguments, so calls to them can be memoized.
+ * <p>
+ * A function is pure if it doesn't call built-in functions (they perform I/O), doesn't write to struct
+ * properties, and only calls pure user functions. Functions cannot see the variables of their callers, so
+ * with immutable arguments there's no other state they could read or change.
+ */
+public final class PurityAnalyzer {
+    private final Set<String> builtIns;
+    private final Map<String, UserFunction> functions;
+
+    /* The user functions called by each candidate */
+    private final HashMap<String, Set<String>> callees = new HashMap<>();
+
+    /**
+     * Marks every pure function of the program.
+     *
+     * @param functions The user functions of the program.
+     * @param builtIns  The names of the built-in functions.
+     */
+    public static void analyze(Map<String, UserFunction> functions, Set<String> builtIns) {
+        var analyzer = new PurityAnalyzer(functions, builtIns);
+        Set<String> pure = analyzer.findPureFunctions();
+
+        for (UserFunction func : functions.values()) {
+            func.setPure(pure.contains(func.getName()));
+        }
+    }
+
+    private PurityAnalyzer(Map<String, UserFunction> functions, Set<String> builtIns) {
+        this.functions = functions;
+        this.builtIns = builtIns;
+    }
+
+    private Set<String> findPureFunctions() {
+        var pure = new HashSet<String>();
+
+        for (UserFunction func : functions.values()) {
+            var calls = new HashSet<String>();
+            if (isPure(func.getBody(), calls)) {
+                pure.add(func.getName());
+                callees.put(func.getName(), calls);
+            }
+        }
+
+        // Drop the candidates that call impure functions until nothing changes (recursion is allowed)
+        boolean changed = true;
+        while (changed) {
+            changed = pure.removeIf(name -> !pure.containsAll(callees.get(name)));
+        }
+
+        return pure;
+    }
+
+    /**
+     * Tests if the Ast performs no impure operation, collecting the user functions it calls.
+     *
+     * @param ast   The Ast to test.
+     * @param calls The set where the names of the called user functions are added.
+     * @return True if the Ast is pure by itself; false otherwise.
+     */
+    private boolean isPure(Ast ast, Set<String> calls) {
+        if (ast == null) {
+            return true;
+        }
+
+        switch (ast.kind) {
+            case AST_CALL:
+                String name = ast.child[0].value.toString();
+                if (builtIns.contains(name) || !functions.containsKey(name)) {
+                    return false;
+                }
+
+                calls.add(name);
+                break;
+            case AST_DECLARATION:
+            case AST_ASSIGN:
+            case AST_UNSET:
+            case AST_POST_INC:
+            case AST_POST_DEC:
+            case AST_PRE_INC:
+            case AST_PRE_DEC:
+                if (writesStruct(ast.child[0])) {
+                    return false;
+                }
+                break;
+        }
+
+        for (Ast child : ast.child) {
+            if (!isPure(child, calls)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests if the target of a write is (or is contained in) a struct property.
+     *
+     * @param target The variable written.
+     * @return True if a struct is modified; false otherwise.
+     */
+    private static boolean writesStruct(Ast target) {
+        while (target != null) {
+            if (target.kind == AstKind.AST_STRUCT_ACCESS) {
+                return true;
+            }
+
+            if (target.kind != AstKind.AST_ARRAY_ACCESS) {
+                return false;
+            }
+
+            target = target.child[0];
+        }
+
+        return false;
+    }
+}
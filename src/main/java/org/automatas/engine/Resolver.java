@@ -0,0 +1,345 @@
+package org.automatas.engine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Resolves every variable of a program to a slot within the frame of its function.
+ * <p>
+ * Functions cannot see the variables of their callers, so all the blocks of a function share a single frame:
+ * each block gets its own range of slots, and sibling blocks reuse the same range. Blocks that declare nothing
+ * get an empty range and cost nothing at runtime.
+ */
+public final class Resolver {
+    private final List<HashMap<String, Integer>> blocks = new ArrayList<>();
+    private int next;
+    private int frameSize;
+    private boolean function;
+
+    /**
+     * Resolves the top-level statement list of a program.
+     *
+     * @param root The root Ast returned by the parser.
+     * @return The number of slots required by the top-level frame.
+     */
+    public static int resolveProgram(Ast root) {
+        var resolver = new Resolver();
+        resolver.resolve(root);
+        return resolver.frameSize;
+    }
+
+    /**
+     * Resolves the body of a function and sets its frame size.
+     *
+     * @param func The function to resolve.
+     */
+    public static void resolveFunction(UserFunction func) {
+        var resolver = new Resolver();
+        resolver.function = true;
+
+        // Parameters live in the root scope of the function
+        resolver.blocks.add(new HashMap<>());
+        for (String param : func.getParameters()) {
+            resolver.declare(param);
+        }
+
+        resolver.resolve(func.getBody());
+        func.setFrameSize(resolver.frameSize);
+    }
+
+    private Resolver() {
+    }
+
+    private void beginBlock() {
+        blocks.add(new HashMap<>());
+    }
+
+    private void endBlock(Ast owner) {
+        blocks.remove(blocks.size() - 1);
+        owner.blockEnd = next;
+        next = owner.blockStart;
+    }
+
+    private int declare(String name) {
+        HashMap<String, Integer> block = blocks.get(blocks.size() - 1);
+        Integer slot = block.get(name);
+
+        if (slot == null) {
+            slot = next++;
+            frameSize = Math.max(frameSize, next);
+            block.put(name, slot);
+        }
+
+        return slot;
+    }
+
+    /**
+     * Binds the identifier to every visible declaration of its name, from the innermost block to the outermost.
+     *
+     * @param identifier The AST_IDENTIFIER node to bind.
+     * @return True if at least one declaration is visible; false otherwise.
+     */
+    private boolean bind(Ast identifier) {
+        String name = identifier.value.toString();
+        int[] slots = new int[blocks.size()];
+        int count = 0;
+
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            Integer slot = blocks.get(i).get(name);
+            if (slot != null) {
+                slots[count++] = slot;
+            }
+        }
+
+        if (count == 0) {
+            identifier.slot = -1;
+            identifier.shadowedSlots = null;
+            return false;
+        }
+
+        identifier.slot = slots[0];
+        identifier.shadowedSlots = null;
+
+        if (count > 1) {
+            identifier.shadowedSlots = new int[count - 1];
+            System.arraycopy(slots, 1, identifier.shadowedSlots, 0, count - 1);
+        }
+
+        return true;
+    }
+
+    private void resolve(Ast ast) {
+        if (ast == null) {
+            return;
+        }
+
+        switch (ast.kind) {
+            case AST_STATEMENT_LIST:
+                resolveBlock(ast, ast.child);
+                break;
+            case AST_IDENTIFIER:
+                bind(ast);
+                break;
+            case AST_DECLARATION:
+                resolveVarDeclaration(ast);
+                break;
+            case AST_CALL:
+                // child[0] is the function name
+                resolve(ast.child[1]);
+                break;
+            case AST_RETURN:
+                if (function && ast.child[0] != null && ast.child[0].kind == AstKind.AST_CALL) {
+                    // Nothing is left to do in the caller once the callee returns
+                    ast.child[0].tailCall = true;
+                }
+
+                resolve(ast.child[0]);
+                break;
+            case AST_STRUCT_ACCESS:
+            case AST_AS:
+            case AST_IS:
+                // child[1] is a member or a type name
+                resolve(ast.child[0]);
+                break;
+            case AST_NEW:
+                break;
+            case AST_IF:
+                resolve(ast.child[0]);
+                resolveBlock(ast, ast.child[1]);
+                break;
+            case AST_IF_ELSE:
+                resolve(ast.child[0]);
+                resolveBlock(ast, ast.child[1]);
+                break;
+            case AST_FOR:
+                resolve(ast.child[0]);
+                resolve(ast.child[1]);
+                resolveBlock(ast, ast.child[3]);
+                resolve(ast.child[2]);
+                break;
+            case AST_FOREACH:
+                resolveForeachStatement(ast);
+                break;
+            case AST_PARALLEL_FOREACH:
+                resolveParallelForeachStatement(ast);
+                break;
+            case AST_DO_WHILE:
+                resolveBlock(ast, ast.child[0]);
+                resolve(ast.child[1]);
+                break;
+            case AST_WHILE:
+                resolve(ast.child[0]);
+                resolveBlock(ast, ast.child[1]);
+                break;
+            default:
+                for (Ast child : ast.child) {
+                    resolve(child);
+                }
+                break;
+        }
+    }
+
+    private void resolveBlock(Ast owner, Ast... statements) {
+        owner.blockStart = next;
+        beginBlock();
+
+        for (Ast statement : statements) {
+            resolve(statement);
+        }
+
+        endBlock(owner);
+    }
+
+    private void resolveVarDeclaration(Ast ast) {
+        Ast var = ast.child[0];
+
+        // The initializer still sees the outer declarations
+        resolve(ast.child[1]);
+
+        if (var.kind != AstKind.AST_IDENTIFIER) {
+            resolve(var);
+            return;
+        }
+
+        declare(var.value.toString());
+        bind(var);
+    }
+
+    private void resolveForeachStatement(Ast ast) {
+        Ast var = ast.child[0];
+
+        resolve(ast.child[1]);
+
+        // The loop variable is created in the current block unless it already exists
+        if (!bind(var)) {
+            declare(var.value.toString());
+            bind(var);
+        }
+
+        resolveBlock(ast, ast.child[2]);
+    }
+
+    private void resolveParallelForeachStatement(Ast ast) {
+        Ast var = ast.child[0];
+
+        resolve(ast.child[1]);
+
+        for (Ast reduction : ast.child[3].child) {
+            Ast target = reduction.child[0];
+            if (!bind(target)) {
+                fatalError("Undefined reduction variable '%s'.", target.value);
+            }
+        }
+
+        // The loop variable is always local to the body: every worker gets its own
+        ast.blockStart = next;
+        beginBlock();
+        declare(var.value.toString());
+        bind(var);
+        resolve(ast.child[2]);
+        endBlock(ast);
+
+        checkParallelBody(ast, ast.child[2]);
+
+        // Every chunk gets its own copies of the arrays and instances of these variables (see ParallelLoop)
+        var shared = new BitSet();
+        collectOuterSlots(ast, ast.child[2], shared);
+        for (Ast reduction : ast.child[3].child) {
+            shared.clear(reduction.child[0].slot);
+        }
+
+        ast.sharedSlots = shared.stream().toArray();
+    }
+
+    /**
+     * Collects the slots of the variables declared outside a parallel foreach that its body uses.
+     *
+     * @param loop  The AST_PARALLEL_FOREACH node (resolved).
+     * @param ast   The statement or expression to scan.
+     * @param slots Receives the slots.
+     */
+    private static void collectOuterSlots(Ast loop, Ast ast, BitSet slots) {
+        if (ast == null) {
+            return;
+        }
+
+        if (ast.kind == AstKind.AST_IDENTIFIER) {
+            // The variable used at runtime may be one of the hidden declarations (see findSlot())
+            addOuterSlot(loop, ast.slot, slots);
+            if (ast.shadowedSlots != null) {
+                for (int slot : ast.shadowedSlots) {
+                    addOuterSlot(loop, slot, slots);
+                }
+            }
+        }
+
+        for (Ast child : ast.child) {
+            collectOuterSlots(loop, child, slots);
+        }
+    }
+
+    private static void addOuterSlot(Ast loop, int slot, BitSet slots) {
+        if (slot >= 0 && slot < loop.blockStart) {
+            slots.set(slot);
+        }
+    }
+
+    /**
+     * Rejects the statements of a parallel foreach body that cannot run concurrently: returns, and writes to
+     * variables declared outside the loop that are not reduction variables.
+     *
+     * @param loop The AST_PARALLEL_FOREACH node (resolved).
+     * @param ast  The statement or expression to check.
+     */
+    private static void checkParallelBody(Ast loop, Ast ast) {
+        if (ast == null) {
+            return;
+        }
+
+        switch (ast.kind) {
+            case AST_RETURN:
+                fatalError("Cannot return from a parallel foreach.");
+                break;
+            case AST_DECLARATION:
+            case AST_ASSIGN:
+            case AST_UNSET:
+            case AST_POST_INC:
+            case AST_POST_DEC:
+            case AST_PRE_INC:
+            case AST_PRE_DEC:
+            case AST_FOREACH:
+                checkParallelWrite(loop, ast.child[0]);
+                break;
+        }
+
+        for (Ast child : ast.child) {
+            checkParallelBody(loop, child);
+        }
+    }
+
+    private static void checkParallelWrite(Ast loop, Ast target) {
+        // Writes to an element or property modify the variable that holds the array or instance
+        while (target.kind == AstKind.AST_ARRAY_ACCESS || target.kind == AstKind.AST_STRUCT_ACCESS) {
+            target = target.child[0];
+        }
+
+        if (target.kind != AstKind.AST_IDENTIFIER || target.slot < 0 || target.slot >= loop.blockStart) {
+            return;
+        }
+
+        for (Ast reduction : loop.child[3].child) {
+            if (reduction.child[0].slot == target.slot) {
+                return;
+            }
+        }
+
+        fatalError("Cannot write to outer variable '%s' in a parallel foreach (declare it as a reduction).", target.value);
+    }
+
+    private static void fatalError(String fmt, Object... args) {
+        String message = "Fatal Error: " + fmt.formatted(args);
+        throw new RuntimeException(message);
+    }
+}
@@ -0,0 +1,83 @@
+package org.automatas.engine;
+
+/**
+ * The value of a long string built by concatenation, held by string Scalars instead of a String (see
+ * Scalar.concat()).
+ * <p>
+ * The ropes that are prefixes of each other share one StringBuilder: appending to the longest of them appends to the
+ * builder in place, so a loop that does s = s + piece costs amortized O(1) per piece instead of copying s every
+ * time. Appending to a shorter one (the builder already continues past it) copies its characters to a new builder.
+ * The String is only created when the value is read as a whole (printing, comparing, hashing...), and kept.
+ * Ropes are immutable values, safe to share between threads: the shared builder is only accessed under its lock.
+ */
+final class Rope {
+    /* Shorter concatenations build a String right away */
+    static final int MIN_LENGTH = 256;
+
+    private final StringBuilder builder;
+    private final int length;
+    private volatile String flat;
+
+    private Rope(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    /**
+     * Creates the rope of two strings.
+     *
+     * @param head The first part.
+     * @param tail The second part.
+     * @return The rope.
+     */
+    static Rope of(String head, String tail) {
+        var builder = newBuilder(head.length() + tail.length());
+        builder.append(head).append(tail);
+
+        return new Rope(builder, builder.length());
+    }
+
+    /**
+     * Appends a string.
+     *
+     * @param tail The string to append.
+     * @return The new rope (this one is unchanged).
+     */
+    Rope append(String tail) {
+        synchronized (builder) {
+            if (builder.length() == length) {
+                builder.append(tail);
+                return new Rope(builder, length + tail.length());
+            }
+
+            // The builder was extended by another rope: copy this prefix
+            var copy = newBuilder(length + tail.length());
+            copy.append(builder, 0, length).append(tail);
+
+            return new Rope(copy, copy.length());
+        }
+    }
+
+    private static StringBuilder newBuilder(int length) {
+        // Room to grow: the next appends are likely
+        return new StringBuilder(Math.max(2 * length, 16));
+    }
+
+    int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (builder) {
+                text = builder.substring(0, length);
+            }
+
+            flat = text;
+        }
+
+        return text;
+    }
+}
@@ -0,0 +1,255 @@
+package org.automatas.engine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the call stacks of the user functions of a script at a fixed interval (see
+ * Executor.setSamplingProfile()).
+ * <p>
+ * Each Interpreter (or Machine) keeps a shadow Stack with the names of its active functions, which costs a store
+ * per call. A background thread copies the stacks of the threads that are running (not waiting, eg: for a task or a
+ * channel) and counts how many times it saw each one. The counts are written in the collapsed-stack format read by
+ * flame graph tools: one line per stack, with the frames from the root separated by ';' and the number of samples.
+ * Stacks start with "main"; the stacks of tasks and parallel loops continue the one that started them.
+ */
+public final class SamplingProfiler {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(10);
+
+    /* The root frame of the stacks of the top-level code */
+    private static final String[] MAIN = {"main"};
+
+    private final long intervalNanos;
+
+    /* The stack sampled for every thread: the one attached last (a thread may run a chunk of a loop within a loop) */
+    private final ConcurrentHashMap<Thread, Stack> stacks = new ConcurrentHashMap<>();
+
+    /* Samples per stack (frames joined with ';'); only used by the sampling thread until it stops */
+    private final HashMap<String, long[]> samples = new HashMap<>();
+
+    private Thread sampler;
+    private volatile boolean running;
+
+    /**
+     * SamplingProfiler constructor.
+     *
+     * @param interval The time between samples.
+     */
+    public SamplingProfiler(Duration interval) {
+        this.intervalNanos = Math.max(interval.toNanos(), 1000);
+    }
+
+    /**
+     * Starts the sampling thread.
+     */
+    public synchronized void start() {
+        if (sampler != null) {
+            return;
+        }
+
+        running = true;
+        sampler = Thread.ofPlatform().daemon().name("sampling-profiler").start(() -> {
+            while (running) {
+                LockSupport.parkNanos(intervalNanos);
+                sample();
+            }
+        });
+    }
+
+    /**
+     * Stops the sampling thread, and waits for it to end.
+     */
+    public synchronized void stop() {
+        if (sampler == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(sampler);
+
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        sampler = null;
+    }
+
+    /**
+     * Gets the number of samples of every stack (call it after stop()).
+     *
+     * @return The counts, by stack (frames joined with ';').
+     */
+    public synchronized Map<String, Long> getSamples() {
+        HashMap<String, Long> counts = HashMap.newHashMap(samples.size());
+        samples.forEach((stack, count) -> counts.put(stack, count[0]));
+
+        return counts;
+    }
+
+    /**
+     * Writes the samples in the collapsed-stack format (call it after stop()).
+     *
+     * @param out The writer (not closed).
+     * @throws IOException If the writer fails.
+     */
+    public synchronized void writeCollapsed(Writer out) throws IOException {
+        List<String> keys = new ArrayList<>(samples.keySet());
+        keys.sort(null);
+
+        for (String stack : keys) {
+            out.write(stack);
+            out.write(' ');
+            out.write(Long.toString(samples.get(stack)[0]));
+            out.write('\n');
+        }
+
+        out.flush();
+    }
+
+    private void sample() {
+        var key = new StringBuilder();
+
+        for (Map.Entry<Thread, Stack> entry : stacks.entrySet()) {
+            // Waiting threads use no CPU (eg: the caller of a parallel loop, or a task blocked on a channel)
+            if (entry.getKey().getState() != Thread.State.RUNNABLE) {
+                continue;
+            }
+
+            key.setLength(0);
+            entry.getValue().appendTo(key);
+            samples.computeIfAbsent(key.toString(), stack -> new long[1])[0]++;
+        }
+    }
+
+    /**
+     * Creates the stack of the top-level code of a script, for the current thread.
+     *
+     * @return The stack (detach it when the code ends).
+     */
+    public Stack attach() {
+        return attach(MAIN);
+    }
+
+    /**
+     * Creates the stack of a task or a parallel loop, for the current thread.
+     *
+     * @param prefix The frames of the code that started it (see Stack.snapshot()).
+     * @return The stack (detach it when the code ends).
+     */
+    public Stack attach(String[] prefix) {
+        var stack = new Stack(this, Thread.currentThread(), prefix);
+        stack.previous = stacks.put(stack.thread, stack);
+
+        return stack;
+    }
+
+    /**
+     * A shadow call stack, written by a single thread and read by the sampling thread.
+     */
+    public static final class Stack {
+        private static final VarHandle DEPTH;
+
+        static {
+            try {
+                DEPTH = MethodHandles.lookup().findVarHandle(Stack.class, "depth", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final SamplingProfiler profiler;
+        private final Thread thread;
+        private Stack previous;
+
+        private volatile String[] frames;
+        private int depth;
+
+        private Stack(SamplingProfiler profiler, Thread thread, String[] prefix) {
+            this.profiler = profiler;
+            this.thread = thread;
+            this.frames = Arrays.copyOf(prefix, Math.max(prefix.length * 2, 16));
+            this.depth = prefix.length;
+        }
+
+        /**
+         * Adds the frame of a called function.
+         *
+         * @param name The name of the function.
+         */
+        public void push(String name) {
+            String[] current = frames;
+            int d = depth;
+
+            if (d == current.length) {
+                current = Arrays.copyOf(current, d * 2);
+                frames = current;
+            }
+
+            current[d] = name;
+            // Publish the frame before the depth that makes it visible (cheaper than a volatile write)
+            DEPTH.setRelease(this, d + 1);
+        }
+
+        /**
+         * Removes the frame of the function that returned.
+         */
+        public void pop() {
+            DEPTH.setRelease(this, depth - 1);
+        }
+
+        /**
+         * Replaces the frame of the current function (eg: for a tail call).
+         *
+         * @param name The name of the function.
+         */
+        public void replace(String name) {
+            frames[depth - 1] = name;
+        }
+
+        /**
+         * Copies the frames, to start the stack of a task or a parallel loop.
+         *
+         * @return The frames, from the root.
+         */
+        public String[] snapshot() {
+            return Arrays.copyOf(frames, depth);
+        }
+
+        /**
+         * Stops sampling the stack, when its code ends.
+         */
+        public void detach() {
+            if (previous != null) {
+                profiler.stacks.put(thread, previous);
+            } else {
+                profiler.stacks.remove(thread, this);
+            }
+        }
+
+        private void appendTo(StringBuilder key) {
+            // The frames may change while they're read: a sample may mix two close stacks, which is harmless
+            int d = (int) DEPTH.getAcquire(this);
+            String[] current = frames;
+
+            for (int i = 0; i < d && i < current.length; i++) {
+                if (i > 0) {
+                    key.append(';');
+                }
+
+                key.append(current[i]);
+            }
+        }
+    }
+}
@@ -1,30 +1,58 @@
 package org.automatas.engine;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
  * Represents a literal value of any type (Array, Bool, Float, Int, String).
+ * <p>
+ * Numeric values are stored unboxed: bool and int values are kept in a long field and float values are kept as
+ * their raw bits in the same field. Only arrays, strings and objects use the reference field.
  */
 public final class Scalar implements Comparable<Scalar> {
-    private final Object value;
+    private static final Scalar TRUE = new Scalar(ScalarType.BOOL, 1, null);
+    private static final Scalar FALSE = new Scalar(ScalarType.BOOL, 0, null);
+
+    /* Cache of the most used int values */
+    private static final long CACHE_LOW = -128;
+    private static final long CACHE_HIGH = 1023;
+    private static final Scalar[] INT_CACHE = new Scalar[(int) (CACHE_HIGH - CACHE_LOW + 1)];
+
+    static {
+        for (int i = 0; i < INT_CACHE.length; i++) {
+            INT_CACHE[i] = new Scalar(ScalarType.INT, CACHE_LOW + i, null);
+        }
+    }
+
     private final ScalarType type;
+    private final long bits;
+    private final Object value;
 
     public static Scalar make(Object value, ScalarType type) {
         // TODO: Add strict type-checking here.
-        return new Scalar(value, type);
+        if (type == null) {
+            return new Scalar(null, 0, value);
+        }
+
+        return switch (type) {
+            case BOOL -> makeBool((Boolean) value);
+            case FLOAT -> makeFloat(((Number) value).doubleValue());
+            case INT -> makeInt(((Number) value).longValue());
+            default -> new Scalar(type, 0, value);
+        };
     }
 
     /**
      * Creates an array scalar.
      *
-     * @param list The list to copy into the array scalar.
+     * @param list The elements of the array. A ScalarArray is used as is; any other list is copied.
      * @return The Scalar of type array.
      */
     public static Scalar makeArray(List<Scalar> list) {
-        return new Scalar(list, ScalarType.ARRAY);
+        ScalarArray array = list instanceof ScalarArray storage ? storage : ScalarArray.copyOf(list);
+        return new Scalar(ScalarType.ARRAY, 0, array);
     }
 
     /**
@@ -34,7 +62,7 @@ public final class Scalar implements Comparable<Scalar> {
      * @return The Scalar of type bool.
      */
     public static Scalar makeBool(boolean value) {
-        return new Scalar(value, ScalarType.BOOL);
+        return value ? TRUE : FALSE;
     }
 
     /**
@@ -44,7 +72,7 @@ public final class Scalar implements Comparable<Scalar> {
      * @return The Scalar of type float.
      */
     public static Scalar makeFloat(double value) {
-        return new Scalar(value, ScalarType.FLOAT);
+        return new Scalar(ScalarType.FLOAT, Double.doubleToLongBits(value), null);
     }
 
     /**
@@ -54,7 +82,11 @@ public final class Scalar implements Comparable<Scalar> {
      * @return The Scalar of type int.
      */
     public static Scalar makeInt(long value) {
-        return new Scalar(value, ScalarType.INT);
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return INT_CACHE[(int) (value - CACHE_LOW)];
+        }
+
+        return new Scalar(ScalarType.INT, value, null);
     }
 
     /**
@@ -64,22 +96,64 @@ public final class Scalar implements Comparable<Scalar> {
      * @return The Scalar of type string.
      */
     public static Scalar makeString(String value) {
-        return new Scalar(value, ScalarType.STRING);
+        return new Scalar(ScalarType.STRING, 0, value);
     }
 
-    public static Scalar makeObject(String name, HashMap<String, Scalar> members) {
-        return new Scalar(new StructInstance(name, members), ScalarType.OBJECT);
+    /**
+     * Concatenates the string values of two scalars. Long results are held by a Rope, so appending to them doesn't
+     * copy them (see Rope); the result is a string scalar either way.
+     *
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The Scalar of type string.
+     */
+    public static Scalar concat(Scalar a, Scalar b) {
+        // A null string (eg: input() at the end of the input) is concatenated as "null"
+        String tail = String.valueOf(b.toString());
+
+        if (a.value instanceof Rope rope) {
+            return new Scalar(ScalarType.STRING, 0, rope.append(tail));
+        }
+
+        String head = String.valueOf(a.toString());
+        if (head.length() + tail.length() < Rope.MIN_LENGTH) {
+            return makeString(head.concat(tail));
+        }
+
+        return new Scalar(ScalarType.STRING, 0, Rope.of(head, tail));
+    }
+
+    public static Scalar makeObject(StructLayout layout) {
+        return new Scalar(ScalarType.OBJECT, 0, new StructInstance(layout));
+    }
+
+    public static Scalar makeTask(Task task) {
+        return new Scalar(ScalarType.TASK, 0, task);
+    }
+
+    public static Scalar makeChannel(Channel channel) {
+        return new Scalar(ScalarType.CHANNEL, 0, channel);
+    }
+
+    public static Scalar makeStream(Input.Lines stream) {
+        return new Scalar(ScalarType.STREAM, 0, stream);
     }
 
     /**
      * Scalar constructor.
      *
-     * @param value The value of the scalar.
      * @param type  The type of the value.
+     * @param bits  The value of bool, int and float scalars.
+     * @param value The value of array, string (a String or a Rope) and object scalars.
      */
-    private Scalar(Object value, ScalarType type) {
-        this.value = value;
+    private Scalar(ScalarType type, long bits, Object value) {
         this.type = type;
+        this.bits = bits;
+        this.value = value;
+
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.countScalar(type);
+        }
     }
 
     @Override
@@ -89,19 +163,36 @@ public final class Scalar implements Comparable<Scalar> {
             case BOOL, INT -> Long.compare(toLong(), o.toLong());
             case FLOAT -> Double.compare(toDouble(), o.toDouble());
             case STRING -> toString().compareTo(o.toString());
-            case OBJECT -> -1; // TODO: Implement object comparison
+            case OBJECT, TASK, CHANNEL, STREAM -> -1; // TODO: Implement object comparison
         };
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Scalar scalar) {
-            return value.equals(scalar.value);
+            return switch (type) {
+                case BOOL, FLOAT, INT -> type == scalar.type && bits == scalar.bits;
+                case STRING -> scalar.isString() && toString().equals(scalar.toString());
+                default -> value.equals(scalar.value);
+            };
         }
 
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        if (type == null) {
+            return 0;
+        }
+
+        return switch (type) {
+            case BOOL, FLOAT, INT -> 31 * type.ordinal() + Long.hashCode(bits);
+            case STRING -> toString().hashCode();
+            default -> value.hashCode();
+        };
+    }
+
     /**
      * Returns the ScalarType of this instance.
      *
@@ -160,13 +251,31 @@ public final class Scalar implements Comparable<Scalar> {
         return type == ScalarType.OBJECT;
     }
 
+    public boolean isTask() {
+        return type == ScalarType.TASK;
+    }
+
+    public boolean isChannel() {
+        return type == ScalarType.CHANNEL;
+    }
+
+    public boolean isStream() {
+        return type == ScalarType.STREAM;
+    }
+
     /**
-     * Gets the value as a generic Object.
+     * Gets the value as a generic Object. Bool, float and int values are boxed.
      *
      * @return the raw value.
      */
     public Object getRawValue() {
-        return value;
+        return switch (type) {
+            case BOOL -> toBoolean();
+            case FLOAT -> toDouble();
+            case INT -> toLong();
+            case STRING -> toString();
+            default -> value;
+        };
     }
 
     /**
@@ -175,10 +284,9 @@ public final class Scalar implements Comparable<Scalar> {
      * @return If the Scalar is an array, the internal List is returned; otherwise a new list is created
      * and returning containing this instance.
      */
-    @SuppressWarnings("unchecked")
     public List<Scalar> toList() {
         if (isArray()) {
-            return (List<Scalar>) value;
+            return (ScalarArray) value;
         }
 
         // Create a single item list
@@ -195,11 +303,11 @@ public final class Scalar implements Comparable<Scalar> {
     public boolean toBoolean() {
         return switch (type) {
             case ARRAY -> toList().size() > 0;
-            case BOOL -> (boolean) value;
+            case BOOL -> bits != 0;
             case FLOAT -> toDouble() != 0d;
             case INT -> toLong() != 0;
-            case STRING -> toString().length() > 0;
-            case OBJECT -> true; // TODO: Implement proper object->toBoolean()
+            case STRING -> stringLength() > 0;
+            case OBJECT, TASK, CHANNEL, STREAM -> true; // TODO: Implement proper object->toBoolean()
         };
     }
 
@@ -211,10 +319,10 @@ public final class Scalar implements Comparable<Scalar> {
     public double toDouble() {
         return switch (type) {
             case ARRAY, BOOL -> toBoolean() ? 1d : 0d;
-            case FLOAT -> (double) value;
+            case FLOAT -> Double.longBitsToDouble(bits);
             case INT -> (double) toLong();
             case STRING -> tryParseDouble();
-            case OBJECT -> 1.d; // TODO: Implement proper object->toDouble()
+            case OBJECT, TASK, CHANNEL, STREAM -> 1.d; // TODO: Implement proper object->toDouble()
         };
     }
 
@@ -227,12 +335,30 @@ public final class Scalar implements Comparable<Scalar> {
         return switch (type) {
             case ARRAY, BOOL -> toBoolean() ? 1 : 0;
             case FLOAT -> (long) toDouble();
-            case INT -> (long) value;
+            case INT -> bits;
             case STRING -> tryParseLong();
-            case OBJECT -> 1; // TODO: Implement proper object->toLong()
+            case OBJECT, TASK, CHANNEL, STREAM -> 1; // TODO: Implement proper object->toLong()
         };
     }
 
+    /**
+     * Returns the value of an int scalar without any conversion. The caller must check the type first.
+     *
+     * @return The long integer value.
+     */
+    long rawLong() {
+        return bits;
+    }
+
+    /**
+     * Returns the value of a float scalar without any conversion. The caller must check the type first.
+     *
+     * @return The double value.
+     */
+    double rawDouble() {
+        return Double.longBitsToDouble(bits);
+    }
+
     /**
      * Returns the Scalar value as String.
      *
@@ -240,17 +366,42 @@ public final class Scalar implements Comparable<Scalar> {
      */
     @Override
     public String toString() {
-        if (isString()) {
-            return (String) value;
-        } else if (isArray()) {
-            return arrayToString();
-        } else if (isObject()) {
-            return objectToString();
-        } else if (value == null) {
+        if (type == null) {
             return "";
-        } else {
-            return value.toString();
         }
+
+        return switch (type) {
+            case ARRAY -> arrayToString();
+            case BOOL -> Boolean.toString(toBoolean());
+            case FLOAT -> Double.toString(toDouble());
+            case INT -> Long.toString(bits);
+            case STRING -> value instanceof Rope rope ? rope.toString() : (String) value;
+            case OBJECT -> objectToString();
+            case TASK, CHANNEL, STREAM -> value.toString();
+        };
+    }
+
+    /**
+     * Returns the length of the value of a string scalar, without building the String of a Rope. The caller must
+     * check the type first.
+     *
+     * @return The number of chars.
+     */
+    public int stringLength() {
+        return value instanceof Rope rope ? rope.length() : ((String) value).length();
+    }
+
+    /**
+     * Returns the storage of an array scalar.
+     *
+     * @return The ScalarArray, or null if the Scalar is not an array.
+     */
+    public ScalarArray toArray() {
+        if (isArray()) {
+            return (ScalarArray) value;
+        }
+
+        return null;
     }
 
     public StructInstance toObject() {
@@ -261,6 +412,112 @@ public final class Scalar implements Comparable<Scalar> {
         return null;
     }
 
+    public Task toTask() {
+        if (isTask()) {
+            return (Task) value;
+        }
+
+        return null;
+    }
+
+    public Channel toChannel() {
+        if (isChannel()) {
+            return (Channel) value;
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the values iterated by foreach: the elements of an array, the values received from a channel until it's
+     * closed, or the lines read by a stream until the end of the input.
+     *
+     * @return The values, or null if the Scalar cannot be iterated.
+     */
+    public Iterable<Scalar> toIterable() {
+        if (type == null) {
+            return null;
+        }
+
+        return switch (type) {
+            case ARRAY -> toList();
+            case CHANNEL -> (Channel) value;
+            case STREAM -> (Input.Lines) value;
+            default -> null;
+        };
+    }
+
+    /**
+     * Copies a value handed to another task, so the tasks never share mutable state: arrays and struct instances
+     * are copied recursively. The other values (including tasks and channels) are immutable or thread-safe, and
+     * are returned as is.
+     *
+     * @param value The value (null for an empty array slot).
+     * @return The value to hand over.
+     */
+    public static Scalar isolate(Scalar value) {
+        if (value == null || !(value.isArray() || value.isObject())) {
+            return value;
+        }
+
+        return value.isolate(new IdentityHashMap<>());
+    }
+
+    /**
+     * Copies several values handed to another task (see isolate()). Values that reference the same array or struct
+     * instance keep referencing the same copy.
+     *
+     * @param values The values, replaced by their copies.
+     */
+    public static void isolateAll(Scalar[] values) {
+        var copies = new IdentityHashMap<Object, Scalar>();
+
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                values[i] = values[i].isolate(copies);
+            }
+        }
+    }
+
+    private Scalar isolate(IdentityHashMap<Object, Scalar> copies) {
+        if (!isArray() && !isObject()) {
+            return this;
+        }
+
+        // Keep the shape of instances that reference each other (or themselves)
+        Scalar copy = copies.get(value);
+        if (copy != null) {
+            return copy;
+        }
+
+        if (isArray()) {
+            ScalarArray array = toArray().copy();
+            copy = makeArray(array);
+            copies.put(value, copy);
+
+            for (int i = 0; i < array.size(); i++) {
+                Scalar element = array.get(i);
+                if (element != null && (element.isArray() || element.isObject())) {
+                    array.set(i, element.isolate(copies));
+                }
+            }
+
+            return copy;
+        }
+
+        StructInstance instance = toObject();
+        StructLayout layout = instance.getLayout();
+        copy = makeObject(layout);
+        copies.put(value, copy);
+
+        for (int i = 0; i < layout.size(); i++) {
+            Scalar member = instance.getValue(i);
+            copy.toObject().setValue(i, member != null ? member.isolate(copies) : null);
+        }
+
+        return copy;
+    }
+
     private String arrayToString() {
         List<Scalar> list = toList();
         var builder = new StringBuilder();
@@ -0,0 +1,461 @@
+package org.automatas.engine;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Storage of the array type.
+ * <p>
+ * While every element shares the same type, the values are packed into a primitive array (long[], double[],
+ * boolean[] or String[]) instead of keeping a Scalar per element. The first write of a different type (or of an
+ * array or object) switches to generic storage, which holds the Scalars themselves. Empty positions (eg: the one
+ * added by "arr[]") are tracked apart, so they don't force the generic storage.
+ * <p>
+ * Copies (copy(), concat(), and the literal arrays built by the Optimizer) share the storage of their source until
+ * one of them is written to: the writer copies the storage first. Every array only reads its first size elements,
+ * so the one that extends the storage the furthest keeps appending in place (eg: acc = acc + chunk is amortized).
+ * <p>
+ * The class implements List, so code written against the List returned by Scalar.toList() keeps working.
+ */
+public final class ScalarArray extends AbstractList<Scalar> implements RandomAccess {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private enum Storage {
+        NONE,    /* No value stored yet (the array is empty or holds only empty positions) */
+        BOOL,
+        FLOAT,
+        INT,
+        STRING,
+        GENERIC,
+    }
+
+    private Storage storage = Storage.NONE;
+    private int size;
+    private int initialCapacity;
+
+    /* Only the array of the current storage is allocated */
+    private boolean[] bools;
+    private double[] doubles;
+    private long[] longs;
+    private String[] strings;
+    private Scalar[] values;
+
+    /* Empty positions of the packed storages (the generic storage holds null instead); never shared */
+    private BitSet nulls;
+
+    /* Set while the storage may be shared with other arrays: the number of elements written to it by all of them */
+    private AtomicInteger shared;
+
+    /**
+     * Creates an empty array.
+     */
+    public ScalarArray() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty array.
+     *
+     * @param capacity The number of elements expected.
+     */
+    public ScalarArray(int capacity) {
+        initialCapacity = Math.max(capacity, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an array with the elements of a list.
+     *
+     * @param list The elements to copy.
+     * @return The new array.
+     */
+    public static ScalarArray copyOf(List<Scalar> list) {
+        if (list instanceof ScalarArray array) {
+            return array.copy();
+        }
+
+        var array = new ScalarArray(list.size());
+        for (Scalar value : list) {
+            array.add(value);
+        }
+
+        return array;
+    }
+
+    /**
+     * Creates a copy of the array that keeps the same storage. The storage itself is copied by the first write to
+     * either array, so the copy costs O(1) until then.
+     *
+     * @return The new array.
+     */
+    public ScalarArray copy() {
+        var copy = new ScalarArray(initialCapacity);
+        copy.shared = share();
+        copy.storage = storage;
+        copy.size = size;
+        copy.bools = bools;
+        copy.doubles = doubles;
+        copy.longs = longs;
+        copy.strings = strings;
+        copy.values = values;
+        copy.nulls = nulls != null ? (BitSet) nulls.clone() : null;
+
+        return copy;
+    }
+
+    /**
+     * Creates a new array with the elements of this array followed by the elements of another one. The new array
+     * continues the storage of this one (see copy()), so only the elements of the other array are copied, unless
+     * this array was already extended by another copy.
+     *
+     * @param other The array to append.
+     * @return The new array.
+     */
+    public ScalarArray concat(ScalarArray other) {
+        if (size == 0) {
+            return other.copy();
+        }
+
+        ScalarArray result = copy();
+        result.appendAll(other);
+        return result;
+    }
+
+    /**
+     * Marks the storage as shared (copy() may be called by several threads, eg: on a literal array).
+     *
+     * @return The count of the elements written to the storage.
+     */
+    private synchronized AtomicInteger share() {
+        if (shared == null) {
+            shared = new AtomicInteger(size);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Copies the storage before writing to it, if other arrays may read it.
+     *
+     * @param minCapacity The capacity needed by the write.
+     */
+    private void own(int minCapacity) {
+        if (shared == null) {
+            return;
+        }
+
+        int capacity = Math.max(Math.max(minCapacity, size + (size >> 1)), DEFAULT_CAPACITY);
+
+        // Only the elements of this array: the rest of the storage may belong to other arrays
+        switch (storage) {
+            case NONE -> {
+            }
+            case BOOL -> bools = copyOfRange(bools, new boolean[capacity]);
+            case FLOAT -> doubles = copyOfRange(doubles, new double[capacity]);
+            case INT -> longs = copyOfRange(longs, new long[capacity]);
+            case STRING -> strings = copyOfRange(strings, new String[capacity]);
+            case GENERIC -> values = copyOfRange(values, new Scalar[capacity]);
+        }
+
+        shared = null;
+    }
+
+    private <T> T copyOfRange(T source, T target) {
+        System.arraycopy(source, 0, target, 0, size);
+        return target;
+    }
+
+    /**
+     * Makes room to append elements: in place if the storage has room and no other array wrote past the end of
+     * this one, in a copy of the storage otherwise.
+     *
+     * @param count The number of elements to append.
+     */
+    private void prepareAppend(int count) {
+        int newSize = size + count;
+
+        if (shared != null && (newSize > capacity() || !shared.compareAndSet(size, newSize))) {
+            own(newSize);
+        }
+
+        ensureCapacity(newSize);
+    }
+
+    /**
+     * Appends the elements of another array, copying the packed values directly when both storages match.
+     *
+     * @param other The array to append.
+     */
+    private void appendAll(ScalarArray other) {
+        if (other.size == 0) {
+            return;
+        }
+
+        if (storage == Storage.NONE && size == 0) {
+            allocate(other.storage, other.size);
+        } else if (storage == other.storage && storage != Storage.NONE) {
+            prepareAppend(other.size);
+        }
+
+        if (storage != other.storage || storage == Storage.NONE) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.get(i));
+            }
+
+            return;
+        }
+
+        System.arraycopy(other.storageArray(), 0, storageArray(), size, other.size);
+
+        if (other.nulls != null) {
+            for (int i = other.nulls.nextSetBit(0); i >= 0 && i < other.size; i = other.nulls.nextSetBit(i + 1)) {
+                markNull(size + i);
+            }
+        }
+
+        size += other.size;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Scalar get(int index) {
+        Objects.checkIndex(index, size);
+
+        if (nulls != null && nulls.get(index)) {
+            return null;
+        }
+
+        return switch (storage) {
+            case NONE -> null;
+            case BOOL -> Scalar.makeBool(bools[index]);
+            case FLOAT -> Scalar.makeFloat(doubles[index]);
+            case INT -> Scalar.makeInt(longs[index]);
+            case STRING -> Scalar.makeString(strings[index]);
+            case GENERIC -> values[index];
+        };
+    }
+
+    @Override
+    public Scalar set(int index, Scalar value) {
+        Scalar previous = get(index);
+        own(size);
+        store(index, value);
+        return previous;
+    }
+
+    /**
+     * Replaces the element at the position (like set(), without returning the previous value).
+     *
+     * @param index The position of the element.
+     * @param value The value to store.
+     */
+    public void put(int index, Scalar value) {
+        Objects.checkIndex(index, size);
+        own(size);
+        store(index, value);
+    }
+
+    @Override
+    public boolean add(Scalar value) {
+        prepareAppend(1);
+        size++;
+        modCount++;
+        store(size - 1, value);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Scalar value) {
+        if (index == size) {
+            add(value);
+            return;
+        }
+
+        Objects.checkIndex(index, size);
+        own(size + 1);
+        ensureCapacity(size + 1);
+
+        if (storage != Storage.NONE) {
+            Object array = storageArray();
+            System.arraycopy(array, index, array, index + 1, size - index);
+        }
+
+        if (nulls != null) {
+            for (int i = size; i > index; i--) {
+                nulls.set(i, nulls.get(i - 1));
+            }
+        }
+
+        size++;
+        modCount++;
+        store(index, value);
+    }
+
+    @Override
+    public Scalar remove(int index) {
+        Scalar previous = get(index);
+        own(size);
+
+        if (storage != Storage.NONE) {
+            Object array = storageArray();
+            System.arraycopy(array, index + 1, array, index, size - index - 1);
+        }
+
+        if (nulls != null) {
+            for (int i = index; i < size - 1; i++) {
+                nulls.set(i, nulls.get(i + 1));
+            }
+
+            nulls.clear(size - 1);
+        }
+
+        size--;
+        modCount++;
+
+        if (storage == Storage.GENERIC) {
+            values[size] = null;
+        }
+
+        return previous;
+    }
+
+    private void store(int index, Scalar value) {
+        if (value == null) {
+            if (storage == Storage.GENERIC) {
+                values[index] = null;
+            } else {
+                markNull(index);
+            }
+
+            return;
+        }
+
+        Storage required = storageOf(value);
+
+        if (storage == Storage.NONE) {
+            allocate(required, size);
+        } else if (storage != required && storage != Storage.GENERIC) {
+            generalize();
+        }
+
+        switch (storage) {
+            case BOOL -> bools[index] = value.toBoolean();
+            case FLOAT -> doubles[index] = value.rawDouble();
+            case INT -> longs[index] = value.rawLong();
+            case STRING -> strings[index] = value.toString();
+            case GENERIC -> values[index] = value;
+        }
+
+        if (nulls != null) {
+            nulls.clear(index);
+        }
+    }
+
+    private static Storage storageOf(Scalar value) {
+        return switch (value.getType()) {
+            case BOOL -> Storage.BOOL;
+            case FLOAT -> Storage.FLOAT;
+            case INT -> Storage.INT;
+            case STRING -> Storage.STRING;
+            case ARRAY, OBJECT, TASK, CHANNEL, STREAM -> Storage.GENERIC;
+        };
+    }
+
+    private void markNull(int index) {
+        if (nulls == null) {
+            nulls = new BitSet();
+        }
+
+        nulls.set(index);
+    }
+
+    /**
+     * Allocates the array of the storage. The array must hold no value yet.
+     */
+    private void allocate(Storage required, int minCapacity) {
+        int capacity = Math.max(minCapacity, initialCapacity);
+        storage = required;
+        shared = null;
+
+        switch (required) {
+            case BOOL -> bools = new boolean[capacity];
+            case FLOAT -> doubles = new double[capacity];
+            case INT -> longs = new long[capacity];
+            case STRING -> strings = new String[capacity];
+            case GENERIC -> {
+                // Generic storage holds the empty positions itself
+                values = new Scalar[capacity];
+                nulls = null;
+            }
+        }
+    }
+
+    /**
+     * Moves the elements of a packed storage into the generic one.
+     */
+    private void generalize() {
+        var generic = new Scalar[Math.max(capacity(), DEFAULT_CAPACITY)];
+        for (int i = 0; i < size; i++) {
+            generic[i] = get(i);
+        }
+
+        bools = null;
+        doubles = null;
+        longs = null;
+        strings = null;
+        nulls = null;
+
+        values = generic;
+        storage = Storage.GENERIC;
+        shared = null;
+    }
+
+    private Object storageArray() {
+        return switch (storage) {
+            case NONE -> null;
+            case BOOL -> bools;
+            case FLOAT -> doubles;
+            case INT -> longs;
+            case STRING -> strings;
+            case GENERIC -> values;
+        };
+    }
+
+    private int capacity() {
+        return switch (storage) {
+            case NONE -> 0;
+            case BOOL -> bools.length;
+            case FLOAT -> doubles.length;
+            case INT -> longs.length;
+            case STRING -> strings.length;
+            case GENERIC -> values.length;
+        };
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int capacity = capacity();
+        if (storage == Storage.NONE || minCapacity <= capacity) {
+            return;
+        }
+
+        int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1));
+        shared = null;
+
+        switch (storage) {
+            case BOOL -> bools = Arrays.copyOf(bools, newCapacity);
+            case FLOAT -> doubles = Arrays.copyOf(doubles, newCapacity);
+            case INT -> longs = Arrays.copyOf(longs, newCapacity);
+            case STRING -> strings = Arrays.copyOf(strings, newCapacity);
+            case GENERIC -> values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+}
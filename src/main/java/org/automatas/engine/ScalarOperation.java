@@ -1,8 +1,5 @@
 package org.automatas.engine;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Performs arithmetic operations with Scalar objects.
  */
@@ -42,14 +39,8 @@ public final class ScalarOperation {
             throwIncompatibleTypes("+", a.getType(), b.getType());
         }
 
-        List<Scalar> op1 = a.toList();
-        List<Scalar> op2 = b.toList();
-        List<Scalar> result = new ArrayList<>(op1.size() + op2.size());
-
         // Copy values
-        result.addAll(op1);
-        result.addAll(op2);
-
+        ScalarArray result = a.toArray().concat(b.toArray());
         return Scalar.makeArray(result);
     }
 
@@ -65,9 +56,7 @@ public final class ScalarOperation {
             throwIncompatibleTypes("+", a.getType(), b.getType());
         }
 
-        String op1 = a.toString();
-        String op2 = b.toString();
-        return Scalar.makeString(op1 + op2);
+        return Scalar.concat(a, b);
     }
 
     /**
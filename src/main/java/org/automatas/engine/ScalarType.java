@@ -9,7 +9,10 @@ public enum ScalarType {
     FLOAT,
     INT,
     STRING,
-    OBJECT;
+    OBJECT,
+    TASK,
+    CHANNEL,
+    STREAM;
 
     @Override
     public String toString() {
@@ -24,6 +27,9 @@ public enum ScalarType {
             case "int" -> INT;
             case "string" -> STRING;
             case "object" -> OBJECT;
+            case "task" -> TASK;
+            case "channel" -> CHANNEL;
+            case "stream" -> STREAM;
             default -> null;
         };
     }
@@ -1,25 +1,22 @@
 package org.automatas.engine;
 
-import java.util.HashMap;
-import java.util.Stack;
+import java.util.Arrays;
 
 /**
  * Manages the scope of variables (symbols).
+ * <p>
+ * Variables are resolved to frame slots ahead of time by the Resolver, so every function call gets a single array
+ * that holds its parameters and the variables of all its blocks. An empty slot means the variable is not defined.
  */
 public final class ScopeManager {
-    private static class Scope {
-        public final Scope parent;
-        public final HashMap<String, Scalar> symbols;
+    /* Marks a slot defined with no value (eg: the result of a function that returns nothing) */
+    private static final Scalar VOID = Scalar.make(null, null);
+    private static final Scalar[] EMPTY_FRAME = new Scalar[0];
 
-        public Scope(Scope parent) {
-            this.parent = parent;
-            this.symbols = new HashMap<>();
-        }
-    }
-
-    private Stack<Scope> stack = new Stack<>();
+    private Scalar[][] stack = new Scalar[64][];
+    private int depth = 0;
 
-    private Scope current;
+    private Scalar[] current;
 
     /**
      * Tests if the ScopeManager has a valid scope.
@@ -30,118 +27,139 @@ public final class ScopeManager {
         return current != null;
     }
 
-    public void push() {
-        stack.push(current);
-        current = new Scope(null);
-    }
+    /**
+     * Creates a new frame (eg: for a function call).
+     *
+     * @param frameSize The number of slots of the frame.
+     */
+    public void push(int frameSize) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
 
-    public void pop() {
-        current = stack.pop();
+        stack[depth++] = current;
+        current = frameSize == 0 ? EMPTY_FRAME : newFrame(frameSize);
     }
 
     /**
-     * Initializes a new nested scope.
+     * Replaces the current frame with an empty one, reusing its array when it's large enough (eg: for a tail call).
+     *
+     * @param frameSize The number of slots of the frame.
      */
-    public void beginBlock() {
-        var parent = current;
-        current = new Scope(parent);
+    public void reuse(int frameSize) {
+        if (current.length >= frameSize) {
+            Arrays.fill(current, null);
+        } else {
+            current = newFrame(frameSize);
+        }
+    }
+
+    private static Scalar[] newFrame(int frameSize) {
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.count(AllocationProfiler.Kind.FRAME, AllocationProfiler.arrayBytes(frameSize));
+        }
+
+        return new Scalar[frameSize];
     }
 
     /**
-     * Finalizes a nested scope and returns the previous scope if any.
+     * Creates a scope manager whose only frame is a copy of the current one (eg: for a parallel foreach worker).
+     * Writes to the copy are not seen by this scope manager.
+     *
+     * @return The new scope manager.
      */
-    public void endBlock() {
-        current = current.parent;
+    public ScopeManager fork() {
+        var copy = new ScopeManager();
+        copy.current = current.clone();
+
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.count(AllocationProfiler.Kind.FRAME, AllocationProfiler.arrayBytes(current.length));
+        }
+
+        return copy;
     }
 
     /**
-     * Tests if the symbol exists within any scope. Lookup begins from the innermost scope.
-     *
-     * @param name The name of the symbol to lookup.
-     * @return True if the symbol exists; false otherwise.
+     * Discards the current frame and restores the previous one.
      */
-    public boolean hasSymbol(String name) {
-        return findScopeForSymbol(name) != null;
+    public void pop() {
+        current = stack[--depth];
+        stack[depth] = null;
     }
 
     /**
-     * Tests if the symbol name exists within the current scope.
+     * Finalizes a block, dropping the variables declared within it.
      *
-     * @param name The name of the symbol to lookup.
-     * @return True if the symbol exists in the current scope; false otherwise.
+     * @param start The first slot declared by the block.
+     * @param end   The first slot past the ones declared by the block.
      */
-    public boolean hasLocalSymbol(String name) {
-        return current != null && current.symbols.containsKey(name);
+    public void endBlock(int start, int end) {
+        if (start < end) {
+            Arrays.fill(current, start, end, null);
+        }
     }
 
     /**
-     * Adds a new symbol to the current scope.
+     * Tests if the slot holds a variable.
      *
-     * @param name  The name of the symbol.
-     * @param value The value of the symbol.
+     * @param slot The slot to test.
+     * @return True if the variable is defined; false otherwise.
      */
-    public void addSymbol(String name, Scalar value) {
-        if (current != null) {
-            current.symbols.put(name, value);
-        }
+    public boolean isDefined(int slot) {
+        return current[slot] != null;
     }
 
     /**
-     * Gets the value of the symbol that matches the name. Lookup begins from the innermost scope.
+     * Finds the slot that holds the variable bound to the identifier. Lookup begins from the innermost declaration.
      *
-     * @param name The name of the symbol to lookup.
-     * @return The Scalar value of the symbol if exists; otherwise null is returned.
+     * @param identifier The AST_IDENTIFIER annotated by the Resolver.
+     * @return The slot if the variable is defined; otherwise -1 is returned.
      */
-    public Scalar getSymbol(String name) {
-        Scope scope = findScopeForSymbol(name);
-        if (scope != null) {
-            return scope.symbols.get(name);
+    public int findSlot(Ast identifier) {
+        int slot = identifier.slot;
+        if (slot < 0 || current[slot] != null) {
+            return slot;
+        }
+
+        // The innermost declaration was unset (or not executed yet): fall back to the shadowed ones
+        if (identifier.shadowedSlots != null) {
+            for (int shadowed : identifier.shadowedSlots) {
+                if (current[shadowed] != null) {
+                    return shadowed;
+                }
+            }
         }
 
-        return null;
+        return -1;
     }
 
     /**
-     * Sets the value of the symbol that matches the name. Lookup begins from the innermost scope.
+     * Gets the value of the variable stored in the slot.
      *
-     * @param name  The name of the symbol to lookup.
-     * @param value The value to set.
+     * @param slot The slot of the variable.
+     * @return The Scalar value of the variable.
      */
-    public void setSymbol(String name, Scalar value) {
-        Scope scope = findScopeForSymbol(name);
-        if (scope != null) {
-            scope.symbols.put(name, value);
-        }
+    public Scalar get(int slot) {
+        Scalar value = current[slot];
+        return value == VOID ? null : value;
     }
 
     /**
-     * Removes the symbol that matches the name. Lookup begins from the innermost scope.
+     * Sets the value of the variable stored in the slot, defining it if needed.
      *
-     * @param name The name of the symbol to remove.
+     * @param slot  The slot of the variable.
+     * @param value The value to set.
      */
-    public void removeSymbol(String name) {
-        Scope scope = findScopeForSymbol(name);
-        if (scope != null) {
-            scope.symbols.remove(name);
-        }
+    public void set(int slot, Scalar value) {
+        current[slot] = value == null ? VOID : value;
     }
 
     /**
-     * Lookups the symbol that matches the name from the current scope to the root.
+     * Removes the variable stored in the slot.
      *
-     * @param symbol The name of the symbol to lookup.
-     * @return The symbol if found; otherwise null is returned.
+     * @param slot The slot of the variable to remove.
      */
-    private Scope findScopeForSymbol(String symbol) {
-        var scope = current;
-        while (scope != null) {
-            if (scope.symbols.containsKey(symbol)) {
-                return scope;
-            }
-
-            scope = scope.parent;
-        }
-
-        return null;
+    public void remove(int slot) {
+        current[slot] = null;
     }
 }
@@ -0,0 +1,101 @@
+package org.automatas.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The content of a source file, memory-mapped and decoded from UTF-8 in a single pass.
+ * <p>
+ * The characters are kept in an array that the Lexer scans in place (see its char[] constructor), so the source
+ * isn't copied through the small buffers of a Reader.
+ */
+public final class SourceFile {
+    private final ByteBuffer bytes;
+    private final char[] chars;
+    private final int length;
+
+    private SourceFile(ByteBuffer bytes, char[] chars, int length) {
+        this.bytes = bytes;
+        this.chars = chars;
+        this.length = length;
+    }
+
+    /**
+     * Maps and decodes a source file. Malformed UTF-8 sequences are replaced (like a Reader does).
+     *
+     * @param path The path of the file.
+     * @return The source.
+     * @throws IOException If the file cannot be read.
+     */
+    public static SourceFile load(Path path) throws IOException {
+        ByteBuffer bytes;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // UTF-8 never decodes to more chars than bytes. The extra position lets the Lexer reach the end of the
+        // input without growing (copying) the array.
+        char[] chars = new char[bytes.remaining() + 1];
+        CharBuffer out = CharBuffer.wrap(chars, 0, bytes.remaining());
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        CoderResult result = decoder.decode(bytes.duplicate(), out, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+
+        result = decoder.flush(out);
+        if (!result.isUnderflow()) {
+            throw new CharacterCodingException();
+        }
+
+        return new SourceFile(bytes, chars, out.position());
+    }
+
+    /**
+     * Creates a source from a string.
+     *
+     * @param source The source code.
+     * @return The source.
+     */
+    public static SourceFile of(String source) {
+        char[] chars = new char[source.length() + 1];
+        source.getChars(0, source.length(), chars, 0);
+
+        return new SourceFile(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)), chars, source.length());
+    }
+
+    /**
+     * Gets the raw content of the file.
+     *
+     * @return A read-only view of the bytes.
+     */
+    public ByteBuffer getBytes() {
+        return bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the decoded characters. The array has room for at least one char past the length.
+     *
+     * @return The characters (only the first getLength() are valid).
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
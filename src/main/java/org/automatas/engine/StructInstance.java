@@ -1,34 +1,63 @@
 package org.automatas.engine;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.List;
 
 public class StructInstance {
-    private final String name;
-    private final HashMap<String, Scalar> members;
+    private final StructLayout layout;
+    private final Scalar[] values;
 
-    public StructInstance(String name, HashMap<String, Scalar> members) {
-        this.name = name;
-        this.members = members;
+    public StructInstance(StructLayout layout) {
+        this.layout = layout;
+        this.values = new Scalar[layout.size()];
+
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.count(AllocationProfiler.Kind.STRUCT_INSTANCE,
+                    AllocationProfiler.STRUCT_INSTANCE_BYTES + AllocationProfiler.arrayBytes(values.length));
+        }
+    }
+
+    public StructLayout getLayout() {
+        return layout;
     }
 
     public boolean hasProperty(String name) {
-        return members.containsKey(name);
+        return layout.slotOf(name) >= 0;
     }
 
     public String getStructName() {
-        return name;
+        return layout.getName();
     }
 
-    public Set<String> getPropertyNames() {
-        return members.keySet();
+    public List<String> getPropertyNames() {
+        return Arrays.asList(layout.getMembers());
     }
 
     public Scalar getPropertyValue(String member) {
-        return members.get(member);
+        return values[layout.slotOf(member)];
     }
 
     public void setPropertyValue(String member, Scalar value) {
-        members.put(member, value);
+        values[layout.slotOf(member)] = value;
+    }
+
+    /**
+     * Gets the value of a member by its slot in the layout.
+     *
+     * @param slot The slot of the member.
+     * @return The value of the member.
+     */
+    public Scalar getValue(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Sets the value of a member by its slot in the layout.
+     *
+     * @param slot  The slot of the member.
+     * @param value The value to set.
+     */
+    public void setValue(int slot, Scalar value) {
+        values[slot] = value;
     }
 }
@@ -0,0 +1,113 @@
+package org.automatas.engine;
+
+import java.util.HashMap;
+
+/**
+ * Describes the members of a struct: every member gets a fixed slot, so instances store their values in a plain
+ * array. All the instances of a struct share the same layout.
+ */
+public final class StructLayout {
+    /**
+     * The slot of a member within a layout. Used as inline cache by AST_STRUCT_ACCESS nodes.
+     */
+    public static final class Member {
+        private final StructLayout layout;
+        private final int slot;
+
+        private Member(StructLayout layout, int slot) {
+            this.layout = layout;
+            this.slot = slot;
+        }
+    }
+
+    private final String name;
+    private final String[] members;
+    private final HashMap<String, Member> slots;
+
+    /**
+     * Creates the layout of a struct declaration.
+     *
+     * @param name        The name of the struct.
+     * @param declaration The statement list with the members of the struct.
+     * @return The layout.
+     */
+    public static StructLayout of(String name, Ast declaration) {
+        String[] members = new String[declaration.child.length];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = declaration.child[i].value.toString();
+        }
+
+        return new StructLayout(name, members);
+    }
+
+    /**
+     * StructLayout constructor.
+     *
+     * @param name    The name of the struct.
+     * @param members The names of the members.
+     */
+    public StructLayout(String name, String[] members) {
+        this.name = name;
+        this.slots = HashMap.newHashMap(members.length);
+
+        for (String member : members) {
+            slots.put(member, null);
+        }
+
+        // Slots follow the iteration order of the index, which is the order used to print the instances
+        this.members = slots.keySet().toArray(new String[0]);
+        for (int i = 0; i < this.members.length; i++) {
+            slots.put(this.members[i], new Member(this, i));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the names of the members, ordered by slot.
+     *
+     * @return The member names.
+     */
+    public String[] getMembers() {
+        return members;
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+    /**
+     * Finds the slot of the member read or written by an AST_STRUCT_ACCESS node. The node caches the slot found
+     * for the last layout it saw, so repeated accesses to instances of the same struct skip the lookup.
+     *
+     * @param access The AST_STRUCT_ACCESS node.
+     * @return The slot, or -1 if the struct has no such member.
+     */
+    public int slotOf(Ast access) {
+        Member cached = access.memberCache;
+        if (cached != null && cached.layout == this) {
+            return cached.slot;
+        }
+
+        Member member = slots.get(access.child[1].value.toString());
+        if (member == null) {
+            return -1;
+        }
+
+        access.memberCache = member;
+        return member.slot;
+    }
+
+    /**
+     * Finds the slot of a member.
+     *
+     * @param member The name of the member.
+     * @return The slot, or -1 if the struct has no such member.
+     */
+    public int slotOf(String member) {
+        Member entry = slots.get(member);
+        return entry != null ? entry.slot : -1;
+    }
+}
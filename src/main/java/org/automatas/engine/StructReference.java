@@ -2,11 +2,19 @@ package org.automatas.engine;
 
 public class StructReference implements Reference {
     private final StructInstance instance;
-    private final String member;
+    private final int slot;
 
-    public StructReference(StructInstance instance, String member) {
+    public StructReference(StructInstance instance, int slot) {
         this.instance = instance;
-        this.member = member;
+        this.slot = slot;
+
+        if (AllocationProfiler.enabled) {
+            AllocationProfiler.count(AllocationProfiler.Kind.STRUCT_REFERENCE, AllocationProfiler.REFERENCE_BYTES);
+        }
+    }
+
+    public StructReference(StructInstance instance, String member) {
+        this(instance, instance.getLayout().slotOf(member));
     }
 
     public StructReference(Scalar object, String member) {
@@ -15,12 +23,12 @@ public class StructReference implements Reference {
 
     @Override
     public Scalar getValue() {
-        return instance.getPropertyValue(member);
+        return instance.getValue(slot);
     }
 
     @Override
     public void setValue(Scalar value) {
-        instance.setPropertyValue(member, value);
+        instance.setValue(slot, value);
     }
 
     @Override
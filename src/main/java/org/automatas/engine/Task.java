@@ -0,0 +1,82 @@
+package org.automatas.engine;
+
+import java.util.function.Function;
+
+/**
+ * A function call running on its own virtual thread, created by a spawn expression.
+ * <p>
+ * The task runs with a Context forked from the one that spawned it: it writes to the same output and reads the
+ * same input, but gets its own caches of results. Errors raised by the task are reported by await(), in the
+ * thread that waits for it.
+ */
+public final class Task {
+    private final Thread thread;
+
+    /* Written by the task before its thread ends; read after joining it */
+    private Scalar result;
+    private Throwable error;
+
+    private Task(Context context, Function<Context, Scalar> body) {
+        Context taskContext = context.fork(context.getOut());
+        this.thread = Thread.ofVirtual().name("task").unstarted(() -> run(taskContext, body));
+    }
+
+    /**
+     * Starts a task.
+     *
+     * @param context The context of the code that spawns the task.
+     * @param body    Runs the call within the context of the task, and returns its result (or null).
+     * @return The running task.
+     */
+    public static Task start(Context context, Function<Context, Scalar> body) {
+        var task = new Task(context, body);
+        task.thread.start();
+        return task;
+    }
+
+    private void run(Context context, Function<Context, Scalar> body) {
+        try {
+            result = body.apply(context);
+        } catch (RuntimeException | Error e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Waits for the task to end.
+     *
+     * @return The value returned by the call, or null if it returned nothing.
+     * @throws RuntimeException If the call raised an error (an ExecutionAbortedException is rethrown as it is).
+     */
+    public Scalar await() {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Fatal Error: interrupted while awaiting a task.", e);
+        }
+
+        if (error instanceof Error e) {
+            throw e;
+        }
+
+        if (error instanceof ExecutionAbortedException e) {
+            throw e;
+        }
+
+        if (error != null) {
+            throw new RuntimeException(error.getMessage(), error);
+        }
+
+        return result;
+    }
+
+    public boolean isDone() {
+        return !thread.isAlive();
+    }
+
+    @Override
+    public String toString() {
+        return isDone() ? "task(done)" : "task(running)";
+    }
+}
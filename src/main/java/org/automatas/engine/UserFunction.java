@@ -4,6 +4,9 @@ public class UserFunction {
     private final String name;
     private final String[] parameters;
     private final Ast body;
+    private int frameSize;
+    private boolean pure;
+    private int index;
 
     public UserFunction(String name, String[] parameters, Ast body) {
         this.name = name;
@@ -22,4 +25,43 @@ public class UserFunction {
     public Ast getBody() {
         return body;
     }
+
+    /**
+     * Gets the number of slots required by the frame of the function (parameters and local variables).
+     *
+     * @return The frame size computed by the Resolver.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Tests if the result of the function depends only on its arguments.
+     *
+     * @return The purity computed by the PurityAnalyzer.
+     */
+    public boolean isPure() {
+        return pure;
+    }
+
+    public void setPure(boolean pure) {
+        this.pure = pure;
+    }
+
+    /**
+     * Gets the position of the function within its script, used to find its cache of results in a Context.
+     *
+     * @return The index assigned by the CompiledScript.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
 }
@@ -0,0 +1,633 @@
+package org.automatas.runtime;
+
+import org.automatas.engine.Ast;
+import org.automatas.engine.AstKind;
+import org.automatas.engine.Scalar;
+import org.automatas.engine.ScalarType;
+import org.automatas.engine.StructLayout;
+import org.automatas.engine.UserFunction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers Ast trees into a flat list of instructions that can be run by the Machine.
+ */
+public final class Compiler {
+    /* INC_DEC_* mode flags */
+    public static final int MODE_DECREMENT = 1;
+    public static final int MODE_PREFIX = 2;
+
+    /* JMP_TRUE/JMP_FALSE: the jump tests the left-hand side of && or || instead of a condition */
+    public static final int JUMP_OPERAND = 1;
+
+    private final Map<String, Ast> structs;
+    private final Map<String, UserFunction> userFunctions;
+
+    private final List<Op> code = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final HashMap<String, Integer> names = new HashMap<>();
+    private final HashMap<String, Integer> layouts = new HashMap<>();
+    private final List<Program.Function> functions = new ArrayList<>();
+    private final HashMap<String, Integer> functionIndex = new HashMap<>();
+    private final List<String> builtInTable = new ArrayList<>();
+    private final HashMap<String, Integer> builtInIndex = new HashMap<>();
+
+    /**
+     * Compiler constructor.
+     *
+     * @param structs       The structs declared by the parser.
+     * @param userFunctions The functions declared by the parser (with their call sites bound by the Linker).
+     */
+    public Compiler(Map<String, Ast> structs, Map<String, UserFunction> userFunctions) {
+        this.structs = structs;
+        this.userFunctions = userFunctions;
+    }
+
+    /**
+     * Compiles the root statement list and every declared function into a Program.
+     * The Ast must be annotated by the Resolver.
+     *
+     * @param root      The root Ast returned by the parser.
+     * @param frameSize The number of slots required by the top-level code.
+     * @return The compiled Program.
+     */
+    public Program compile(Ast root, int frameSize) {
+        for (UserFunction func : userFunctions.values()) {
+            functionIndex.put(func.getName(), functions.size());
+            functions.add(new Program.Function(func.getName(), func.getParameters(), func.getFrameSize(), func.getIndex()));
+        }
+
+        compileStatement(root);
+        emit(OpCode.HALT);
+
+        for (Program.Function func : functions) {
+            func.setEntry(code.size());
+            compileStatement(userFunctions.get(func.getName()).getBody());
+            emit(OpCode.RETURN, 0);
+        }
+
+        return new Program(
+                code.toArray(new Op[0]),
+                constants.toArray(),
+                functions.toArray(new Program.Function[0]),
+                builtInTable.toArray(new String[0]),
+                frameSize
+        );
+    }
+
+    private int emit(OpCode opCode) {
+        return emit(opCode, 0, 0);
+    }
+
+    private int emit(OpCode opCode, int op1) {
+        return emit(opCode, op1, 0);
+    }
+
+    private int emit(OpCode opCode, int op1, int op2) {
+        code.add(new Op(opCode, op1, op2));
+        return code.size() - 1;
+    }
+
+    /**
+     * Sets the jump target (op1) of a previously emitted instruction.
+     *
+     * @param index  The index of the jump instruction.
+     * @param target The instruction index to jump to.
+     */
+    private void patch(int index, int target) {
+        Op op = code.get(index);
+        code.set(index, new Op(op.code, target, op.op2));
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private int name(String name) {
+        Integer index = names.get(name);
+        if (index == null) {
+            index = constant(name);
+            names.put(name, index);
+        }
+
+        return index;
+    }
+
+    private int builtIn(String name) {
+        Integer index = builtInIndex.get(name);
+        if (index == null) {
+            index = builtInTable.size();
+            builtInTable.add(name);
+            builtInIndex.put(name, index);
+        }
+
+        return index;
+    }
+
+    private void error(String fmt, Object... args) {
+        String message = "Fatal Error: " + fmt.formatted(args);
+        emit(OpCode.ERROR, constant(message));
+    }
+
+    private void compileStatement(Ast ast) {
+        switch (ast.kind) {
+            case AST_STATEMENT_LIST:
+                compileStatementList(ast);
+                break;
+            case AST_RETURN:
+                compileReturn(ast);
+                break;
+            case AST_UNSET:
+                compileUnset(ast);
+                break;
+            case AST_IF:
+                compileIfStatement(ast);
+                break;
+            case AST_IF_ELSE:
+                compileIfElseStatement(ast);
+                break;
+            case AST_FOR:
+                compileForStatement(ast);
+                break;
+            case AST_FOREACH:
+                compileForeachStatement(ast);
+                break;
+            case AST_PARALLEL_FOREACH:
+                compileParallelForeachStatement(ast);
+                break;
+            case AST_DO_WHILE:
+                compileDoWhileStatement(ast);
+                break;
+            case AST_WHILE:
+                compileWhileStatement(ast);
+                break;
+            default:
+                compileExpression(ast);
+                emit(OpCode.DISCARD);
+                break;
+        }
+    }
+
+    private void compileExpression(Ast ast) {
+        switch (ast.kind) {
+            case AST_SCALAR:
+                emit(OpCode.CONST, constant(ast.constant != null ? ast.constant : Scalar.make(ast.value, ast.type)));
+                break;
+            case AST_ARRAY:
+                if (ast.constant != null) {
+                    // The template is copied on write by every evaluation
+                    emit(OpCode.CONST_ARRAY, constant(ast.constant));
+                    break;
+                }
+
+                for (Ast child : ast.child) {
+                    compileExpression(child);
+                }
+                emit(OpCode.NEW_ARRAY, ast.child.length);
+                break;
+            case AST_DECLARATION:
+                compileVarDeclaration(ast);
+                break;
+            case AST_ASSIGN:
+                compileVarAssign(ast);
+                break;
+            case AST_IDENTIFIER:
+                emit(OpCode.LOAD_VAR, constant(ast));
+                break;
+            case AST_ARRAY_ACCESS:
+                compileArrayAccess(ast);
+                break;
+            case AST_STRUCT_ACCESS:
+                compileExpression(ast.child[0]);
+                emit(OpCode.STRUCT_GET, constant(ast));
+                break;
+            case AST_CALL:
+                compileCall(ast);
+                break;
+            case AST_AND:
+                compileLogic(ast, OpCode.JMP_FALSE, false);
+                break;
+            case AST_OR:
+                compileLogic(ast, OpCode.JMP_TRUE, true);
+                break;
+            case AST_EQUALS:
+            case AST_NOT_EQUALS:
+            case AST_SMALLER:
+            case AST_SMALLER_OR_EQUAL:
+            case AST_GREATER:
+            case AST_GREATER_OR_EQUAL:
+            case AST_ADD:
+            case AST_SUBTRACT:
+            case AST_MULTIPLY:
+            case AST_POW:
+            case AST_DIVIDE:
+            case AST_MODULO:
+                compileBinaryOperation(ast);
+                break;
+            case AST_BOOL_NOT:
+                compileExpression(ast.child[0]);
+                emit(OpCode.BOOL_NOT);
+                break;
+            case AST_POST_INC:
+            case AST_POST_DEC:
+            case AST_PRE_INC:
+            case AST_PRE_DEC:
+                compileDecInc(ast);
+                break;
+            case AST_LEN:
+                compileExpression(ast.child[0]);
+                emit(OpCode.LEN, ast.child[0].kind.ordinal());
+                break;
+            case AST_TYPEOF:
+                compileExpression(ast.child[0]);
+                emit(OpCode.TYPEOF);
+                break;
+            case AST_AS:
+                compileTypeCast(ast);
+                break;
+            case AST_IS:
+                compileTypeCheck(ast);
+                break;
+            case AST_NEW:
+                compileNewInstance(ast);
+                break;
+            case AST_SPAWN:
+                compileSpawn(ast);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected statement in expression: " + ast.kind);
+        }
+    }
+
+    private void compileStatementList(Ast ast) {
+        for (Ast statement : ast.child) {
+            compileStatement(statement);
+        }
+
+        compileEndBlock(ast);
+    }
+
+    private void compileBlock(Ast owner, Ast stmt) {
+        compileStatement(stmt);
+        compileEndBlock(owner);
+    }
+
+    private void compileEndBlock(Ast owner) {
+        // Blocks that declare nothing have nothing to drop
+        if (owner.blockStart < owner.blockEnd) {
+            emit(OpCode.END_BLOCK, owner.blockStart, owner.blockEnd);
+        }
+    }
+
+    private void compileVarDeclaration(Ast ast) {
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+
+        if (var.kind != AstKind.AST_IDENTIFIER) {
+            error("Illegal array access on left side of var declaration.");
+            return;
+        }
+
+        compileExpression(expr);
+        emit(OpCode.DECLARE_VAR, constant(var), expr.kind.ordinal());
+    }
+
+    private void compileVarAssign(Ast ast) {
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+
+        switch (var.kind) {
+            case AST_ARRAY_ACCESS -> {
+                compileExpression(var.child[0]);
+
+                if (var.child[1] == null) {
+                    compileExpression(expr);
+                    emit(OpCode.ARRAY_APPEND, expr.kind.ordinal());
+                } else {
+                    compileExpression(var.child[1]);
+                    compileExpression(expr);
+                    emit(OpCode.ARRAY_SET, expr.kind.ordinal());
+                }
+            }
+            case AST_STRUCT_ACCESS -> {
+                compileExpression(var.child[0]);
+                compileExpression(expr);
+                emit(OpCode.STRUCT_SET, constant(var), expr.kind.ordinal());
+            }
+            default -> {
+                compileExpression(expr);
+                emit(OpCode.STORE_VAR, constant(var), expr.kind.ordinal());
+            }
+        }
+    }
+
+    private void compileArrayAccess(Ast ast) {
+        compileExpression(ast.child[0]);
+
+        if (ast.child[1] == null) {
+            // "arr[]" outside an assignment appends an empty slot
+            emit(OpCode.CONST, constant(null));
+            emit(OpCode.ARRAY_APPEND, -1);
+            return;
+        }
+
+        compileExpression(ast.child[1]);
+        emit(OpCode.ARRAY_GET);
+    }
+
+    private void compileCall(Ast ast) {
+        Op call = compileCallArguments(ast);
+
+        if (call != null) {
+            code.add(call);
+        }
+    }
+
+    /**
+     * Compiles the arguments of a call and creates the instruction that calls the function.
+     *
+     * @param ast The AST_CALL node.
+     * @return The CALL or CALL_BUILTIN instruction, or null if the function is undefined (an error is emitted).
+     */
+    private Op compileCallArguments(Ast ast) {
+        Ast funcName = ast.child[0];
+        Ast funcArgs = ast.child[1];
+        String name = funcName.value.toString();
+
+        for (Ast arg : funcArgs.child) {
+            compileExpression(arg);
+        }
+
+        int argc = funcArgs.child.length;
+
+        // Call sites were bound by the Linker
+        if (ast.binding.handler != null) {
+            return new Op(OpCode.CALL_BUILTIN, builtIn(name), argc);
+        }
+
+        if (ast.binding.function != null) {
+            return new Op(OpCode.CALL, functionIndex.get(name), argc);
+        }
+
+        error("Call to undefined function '%s'.", name);
+        return null;
+    }
+
+    private void compileSpawn(Ast ast) {
+        Op call = compileCallArguments(ast.child[0]);
+
+        if (call != null) {
+            // The task runs the call instruction on its own Machine
+            emit(OpCode.SPAWN, constant(call));
+        }
+    }
+
+    private void compileReturn(Ast ast) {
+        Ast expr = ast.child[0];
+
+        if (expr == null) {
+            emit(OpCode.RETURN, 0);
+            return;
+        }
+
+        if (expr.kind == AstKind.AST_CALL && expr.tailCall) {
+            String name = expr.child[0].value.toString();
+
+            if (expr.binding.function != null) {
+                for (Ast arg : expr.child[1].child) {
+                    compileExpression(arg);
+                }
+
+                emit(OpCode.TAIL_CALL, functionIndex.get(name), expr.child[1].child.length);
+                return;
+            }
+        }
+
+        compileExpression(expr);
+        emit(OpCode.RETURN, 1, expr.kind.ordinal());
+    }
+
+    private void compileLogic(Ast ast, OpCode shortCircuit, boolean shortValue) {
+        compileExpression(ast.child[0]);
+        int jumpShort = emit(shortCircuit, 0, JUMP_OPERAND);
+
+        compileExpression(ast.child[1]);
+        emit(OpCode.TO_BOOL);
+        int jumpEnd = emit(OpCode.JMP);
+
+        patch(jumpShort, code.size());
+        emit(OpCode.CONST, constant(Scalar.makeBool(shortValue)));
+        patch(jumpEnd, code.size());
+    }
+
+    private void compileBinaryOperation(Ast ast) {
+        compileExpression(ast.child[0]);
+        compileExpression(ast.child[1]);
+
+        OpCode opCode = switch (ast.kind) {
+            case AST_EQUALS -> OpCode.EQUALS;
+            case AST_NOT_EQUALS -> OpCode.NOT_EQUALS;
+            case AST_SMALLER -> OpCode.SMALLER;
+            case AST_SMALLER_OR_EQUAL -> OpCode.SMALLER_OR_EQUAL;
+            case AST_GREATER -> OpCode.GREATER;
+            case AST_GREATER_OR_EQUAL -> OpCode.GREATER_OR_EQUAL;
+            case AST_ADD -> OpCode.ADD;
+            case AST_SUBTRACT -> OpCode.SUBTRACT;
+            case AST_MULTIPLY -> OpCode.MULTIPLY;
+            case AST_POW -> OpCode.POW;
+            case AST_DIVIDE -> OpCode.DIVIDE;
+            case AST_MODULO -> OpCode.MODULO;
+            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
+        };
+
+        // The Ast is kept as operand to share its specialized operator node with the tree walker
+        emit(opCode, constant(ast));
+    }
+
+    private void compileDecInc(Ast ast) {
+        Ast var = ast.child[0];
+        int mode = switch (ast.kind) {
+            case AST_POST_INC -> 0;
+            case AST_POST_DEC -> MODE_DECREMENT;
+            case AST_PRE_INC -> MODE_PREFIX;
+            case AST_PRE_DEC -> MODE_PREFIX | MODE_DECREMENT;
+            default -> throw new IllegalStateException("Unexpected value: " + ast.kind);
+        };
+
+        switch (var.kind) {
+            case AST_ARRAY_ACCESS -> {
+                if (var.child[1] == null) {
+                    error("Cannot increment an empty array slot.");
+                    return;
+                }
+
+                compileExpression(var.child[0]);
+                compileExpression(var.child[1]);
+                emit(OpCode.INC_DEC_ELEM, 0, mode);
+            }
+            case AST_STRUCT_ACCESS -> {
+                compileExpression(var.child[0]);
+                emit(OpCode.INC_DEC_PROP, constant(var), mode);
+            }
+            default -> emit(OpCode.INC_DEC_VAR, constant(var), mode);
+        }
+    }
+
+    private void compileTypeCast(Ast ast) {
+        Ast type = ast.child[1];
+        ScalarType target = ScalarType.getType(type.value.toString());
+
+        compileExpression(ast.child[0]);
+
+        if (target == null) {
+            error("Cannot cast to unknown type '%s'.", type.value);
+        } else if (target == ScalarType.OBJECT || target == ScalarType.TASK || target == ScalarType.CHANNEL
+                || target == ScalarType.STREAM) {
+            error("Cannot cast to %s.", target);
+        } else {
+            emit(OpCode.CAST, target.ordinal());
+        }
+    }
+
+    private void compileTypeCheck(Ast ast) {
+        Ast type = ast.child[1];
+        ScalarType target = ScalarType.getType(type.value.toString());
+
+        compileExpression(ast.child[0]);
+
+        if (target == null) {
+            error("Unknown type '%s'.", type.value);
+        } else {
+            emit(OpCode.IS, target.ordinal());
+        }
+    }
+
+    private void compileNewInstance(Ast ast) {
+        String name = ast.child[0].value.toString();
+
+        if (!structs.containsKey(name)) {
+            error("Cannot instantiate undefined struct '%s'.", name);
+            return;
+        }
+
+        // Every instance of a struct shares the same layout
+        Integer layout = layouts.get(name);
+        if (layout == null) {
+            layout = constant(StructLayout.of(name, structs.get(name)));
+            layouts.put(name, layout);
+        }
+
+        emit(OpCode.NEW_STRUCT, layout);
+    }
+
+    private void compileUnset(Ast ast) {
+        Ast var = ast.child[0];
+
+        switch (var.kind) {
+            case AST_ARRAY_ACCESS -> {
+                compileExpression(var.child[0]);
+                compileExpression(var.child[1]);
+                emit(OpCode.ARRAY_UNSET);
+            }
+            case AST_STRUCT_ACCESS -> {
+                compileExpression(var.child[0]);
+                emit(OpCode.STRUCT_UNSET, constant(var));
+            }
+            default -> emit(OpCode.UNSET_VAR, constant(var));
+        }
+    }
+
+    private void compileIfStatement(Ast ast) {
+        compileExpression(ast.child[0]);
+        int jumpEnd = emit(OpCode.JMP_FALSE);
+
+        compileBlock(ast, ast.child[1]);
+        patch(jumpEnd, code.size());
+    }
+
+    private void compileIfElseStatement(Ast ast) {
+        Ast ifstmt = ast.child[0];
+
+        compileExpression(ifstmt.child[0]);
+        int jumpElse = emit(OpCode.JMP_FALSE);
+
+        compileBlock(ifstmt, ifstmt.child[1]);
+        int jumpEnd = emit(OpCode.JMP);
+
+        patch(jumpElse, code.size());
+        compileBlock(ast, ast.child[1]);
+        patch(jumpEnd, code.size());
+    }
+
+    private void compileForStatement(Ast ast) {
+        Ast decl = ast.child[0];
+        Ast cond = ast.child[1];
+        Ast step = ast.child[2];
+        Ast stmt = ast.child[3];
+
+        compileExpression(decl);
+        emit(OpCode.DISCARD);
+        int jumpCond = emit(OpCode.JMP);
+
+        int body = code.size();
+        compileBlock(ast, stmt);
+        compileExpression(step);
+        emit(OpCode.DISCARD);
+
+        patch(jumpCond, code.size());
+        compileExpression(cond);
+        emit(OpCode.JMP_TRUE, body);
+    }
+
+    private void compileForeachStatement(Ast ast) {
+        Ast var = ast.child[0];
+        Ast expr = ast.child[1];
+        Ast stmt = ast.child[2];
+        int identifier = constant(var);
+
+        compileExpression(expr);
+        emit(OpCode.ITER_INIT, identifier, expr.kind.ordinal());
+
+        int next = emit(OpCode.ITER_NEXT, 0, identifier);
+        compileBlock(ast, stmt);
+        emit(OpCode.JMP, next);
+
+        patch(next, code.size());
+        emit(OpCode.DISCARD);
+    }
+
+    private void compileParallelForeachStatement(Ast ast) {
+        compileExpression(ast.child[1]);
+        int loop = emit(OpCode.PARALLEL_FOREACH, constant(ast));
+        int jumpEnd = emit(OpCode.JMP);
+
+        // The body runs out of line, once per element, by the workers
+        code.set(loop, new Op(OpCode.PARALLEL_FOREACH, code.get(loop).op1, code.size()));
+        compileBlock(ast, ast.child[2]);
+        emit(OpCode.END_BODY);
+
+        patch(jumpEnd, code.size());
+    }
+
+    private void compileDoWhileStatement(Ast ast) {
+        int body = code.size();
+        compileBlock(ast, ast.child[0]);
+        compileExpression(ast.child[1]);
+        emit(OpCode.JMP_TRUE, body);
+    }
+
+    private void compileWhileStatement(Ast ast) {
+        int jumpCond = emit(OpCode.JMP);
+
+        int body = code.size();
+        compileBlock(ast, ast.child[1]);
+
+        patch(jumpCond, code.size());
+        compileExpression(ast.child[0]);
+        emit(OpCode.JMP_TRUE, body);
+    }
+}
@@ -1,11 +1,33 @@
 package org.automatas.runtime;
 
-import java.io.BufferedReader;
+import org.automatas.engine.AllocationProfiler;
+import org.automatas.engine.Ast;
+import org.automatas.engine.AstKind;
+import org.automatas.engine.Budget;
+import org.automatas.engine.Context;
+import org.automatas.engine.FunctionHandler;
+import org.automatas.engine.MemoCache;
+import org.automatas.engine.Node;
+import org.automatas.engine.NodeType;
+import org.automatas.engine.ParallelLoop;
+import org.automatas.engine.SamplingProfiler;
+import org.automatas.engine.Scalar;
+import org.automatas.engine.ScalarArray;
+import org.automatas.engine.ScalarOperation;
+import org.automatas.engine.ScalarType;
+import org.automatas.engine.ScopeManager;
+import org.automatas.engine.StructInstance;
+import org.automatas.engine.StructLayout;
+import org.automatas.engine.Task;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.function.Function;
 
 public final class Machine {
     private final static int CMP_RESULT = 15;
@@ -23,11 +45,151 @@ public final class Machine {
 
     private int pc = 0;
 
+    /* Operand stack */
+    private Object[] operands = new Object[64];
+    private int sp = 0;
+
+    /* Call stack: return address and operand stack base of every active call, and if it was replaced by a tail call */
+    private int[] returnAddresses = new int[64];
+    private int[] frameBases = new int[64];
+    private boolean[] tailCalled = new boolean[64];
+
+    /* Memoized calls: the cache and key where the result of every active call must be stored */
+    private MemoCache[] memoCaches = new MemoCache[64];
+    private MemoCache.Key[] memoKeys = new MemoCache.Key[64];
+    private int fp = 0;
+
+    private final Object[] constants;
+    private final Program.Function[] functions;
+    private final FunctionHandler[] builtIns;
+    private final int frameSize;
+    private final ScopeManager scope;
+    private final Node callResult = new Node();
+    private final Context context;
+
+    /* The names of the active functions, for the sampling profiler of the context (null if it has none) */
+    private final SamplingProfiler.Stack callStack;
+
+    /* Counts the allocations per function for the AllocationProfiler of the context (null if it has none) */
+    private final AllocationProfiler.Recorder allocations;
+
+    /* Counts the loop iterations and calls for the Budget of the context (null if it has none) */
+    private final Budget.Meter meter;
+
+    /* Caches of results of the user functions, by function index */
+    private final Function<Context, MemoCache[]> cacheProvider;
+    private final MemoCache[] functionCaches;
+
     public Machine(Op[] instructions) {
         this.instructions = instructions;
+        this.constants = new Object[0];
+        this.functions = new Program.Function[0];
+        this.builtIns = new FunctionHandler[0];
+        this.frameSize = 0;
+        this.scope = new ScopeManager();
+        this.context = new Context();
+        this.cacheProvider = ctx -> new MemoCache[0];
+        this.functionCaches = new MemoCache[0];
+        this.callStack = null;
+        this.allocations = null;
+        this.meter = null;
+    }
+
+    /**
+     * Machine constructor for compiled programs.
+     *
+     * @param program       The program to execute.
+     * @param handlers      The available built-in functions.
+     * @param context       The context of the execution.
+     * @param cacheProvider Gets the caches of results of the user functions of a context, by function index.
+     */
+    public Machine(Program program, Map<String, FunctionHandler> handlers, Context context,
+                   Function<Context, MemoCache[]> cacheProvider) {
+        this.instructions = program.getInstructions();
+        this.constants = program.getConstants();
+        this.functions = program.getFunctions();
+        this.frameSize = program.getFrameSize();
+        this.scope = new ScopeManager();
+        this.context = context;
+        this.cacheProvider = cacheProvider;
+        this.functionCaches = cacheProvider.apply(context);
+
+        SamplingProfiler sampler = context.getSamplingProfiler();
+        this.callStack = sampler != null ? sampler.attach() : null;
+
+        AllocationProfiler allocationProfiler = context.getAllocationProfiler();
+        this.allocations = allocationProfiler != null ? allocationProfiler.attach("main") : null;
+
+        Budget budget = context.getBudget();
+        this.meter = budget != null ? budget.meter(0) : null;
+
+        String[] names = program.getBuiltIns();
+        this.builtIns = new FunctionHandler[names.length];
+        for (int i = 0; i < names.length; i++) {
+            builtIns[i] = handlers.get(names[i]);
+        }
+    }
+
+    /**
+     * Creates the Machine of a parallel foreach worker or a task, which shares the program of its parent.
+     *
+     * @param stackPrefix The call stack of the code that started the worker (see SamplingProfiler.Stack).
+     * @param function    The function that runs first, for the AllocationProfiler ("main" for the top-level code).
+     * @param callDepth   The call depth of the code that started the worker, for the Budget (0 for a task).
+     */
+    private Machine(Machine parent, Context context, ScopeManager scope, String[] stackPrefix, String function,
+                    int callDepth) {
+        this.instructions = parent.instructions;
+        this.constants = parent.constants;
+        this.functions = parent.functions;
+        this.builtIns = parent.builtIns;
+        this.frameSize = parent.frameSize;
+        this.scope = scope;
+        this.context = context;
+        this.cacheProvider = parent.cacheProvider;
+        this.functionCaches = cacheProvider.apply(context);
+
+        SamplingProfiler sampler = context.getSamplingProfiler();
+        this.callStack = sampler != null && stackPrefix != null ? sampler.attach(stackPrefix) : null;
+
+        AllocationProfiler allocationProfiler = context.getAllocationProfiler();
+        this.allocations = allocationProfiler != null ? allocationProfiler.attach(function) : null;
+
+        Budget budget = context.getBudget();
+        this.meter = budget != null ? budget.meter(callDepth) : null;
     }
 
     public void execute() {
+        try {
+            scope.push(frameSize);
+            run();
+        } finally {
+            detachProfilers();
+        }
+    }
+
+    /**
+     * Stops sampling the call stack of this Machine, adds the allocations it counted to the profiler, and gives its
+     * unused steps back to the Budget.
+     */
+    private void detachProfilers() {
+        if (meter != null) {
+            meter.retire();
+        }
+
+        if (callStack != null) {
+            callStack.detach();
+        }
+
+        if (allocations != null) {
+            allocations.finish();
+        }
+    }
+
+    /**
+     * Runs instructions from the current pc until the program ends, or the body of a parallel foreach does.
+     */
+    private void run() {
         while (pc < instructions.length) {
             Op op = instructions[pc];
             pc++;
@@ -50,6 +212,7 @@ public final class Machine {
                     break;
                 case PEEK:
                     executePeek(op);
+                    break;
                 case COMPARE:
                     executeCompare(op);
                     break;
@@ -74,6 +237,144 @@ public final class Machine {
                 case OUTPUT:
                     executeOutput(op);
                     break;
+                case CONST:
+                    push(constants[op.op1]);
+                    break;
+                case DUP:
+                    push(operands[sp - 1]);
+                    break;
+                case DISCARD:
+                    sp--;
+                    break;
+                case LOAD_VAR:
+                    executeLoadVar(op);
+                    break;
+                case STORE_VAR:
+                    executeStoreVar(op);
+                    break;
+                case DECLARE_VAR:
+                    executeDeclareVar(op);
+                    break;
+                case UNSET_VAR:
+                    executeUnsetVar(op);
+                    break;
+                case END_BLOCK:
+                    scope.endBlock(op.op1, op.op2);
+                    break;
+                case NEW_ARRAY:
+                    executeNewArray(op);
+                    break;
+                case CONST_ARRAY:
+                    push(Scalar.makeArray(((Scalar) constants[op.op1]).toArray().copy()));
+                    break;
+                case ARRAY_GET:
+                    executeArrayGet(op);
+                    break;
+                case ARRAY_SET:
+                    executeArraySet(op);
+                    break;
+                case ARRAY_APPEND:
+                    executeArrayAppend(op);
+                    break;
+                case ARRAY_UNSET:
+                    executeArrayUnset(op);
+                    break;
+                case NEW_STRUCT:
+                    executeNewStruct(op);
+                    break;
+                case STRUCT_GET:
+                    executeStructGet(op);
+                    break;
+                case STRUCT_SET:
+                    executeStructSet(op);
+                    break;
+                case STRUCT_UNSET:
+                    popInstance((Ast) constants[op.op1]);
+                    break;
+                case ADD:
+                case SUBTRACT:
+                case MULTIPLY:
+                case POW:
+                case DIVIDE:
+                case MODULO:
+                    executeOperator(op);
+                    break;
+                case INC_DEC_VAR:
+                    executeIncDecVar(op);
+                    break;
+                case INC_DEC_ELEM:
+                    executeIncDecElem(op);
+                    break;
+                case INC_DEC_PROP:
+                    executeIncDecProp(op);
+                    break;
+                case EQUALS:
+                case NOT_EQUALS:
+                case SMALLER:
+                case SMALLER_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL:
+                    executeOperator(op);
+                    break;
+                case BOOL_NOT:
+                    push(Scalar.makeBool(!popValue("Cannot negate non-boolean expression.").toBoolean()));
+                    break;
+                case TO_BOOL:
+                    push(Scalar.makeBool(popValue("Invalid expression in right-hand side operand.").toBoolean()));
+                    break;
+                case LEN:
+                    executeLen(op);
+                    break;
+                case TYPEOF:
+                    push(Scalar.makeString(popValue("Cannot get type of non-scalar expression.").getType().toString()));
+                    break;
+                case CAST:
+                    executeCast(op);
+                    break;
+                case IS:
+                    executeTypeCheck(op);
+                    break;
+                case JMP_TRUE:
+                    if (popCondition(op).toBoolean()) {
+                        jump(op.op1);
+                    }
+                    break;
+                case JMP_FALSE:
+                    if (!popCondition(op).toBoolean()) {
+                        jump(op.op1);
+                    }
+                    break;
+                case ITER_INIT:
+                    executeIterInit(op);
+                    break;
+                case ITER_NEXT:
+                    executeIterNext(op);
+                    break;
+                case PARALLEL_FOREACH:
+                    executeParallelForeach(op);
+                    break;
+                case END_BODY:
+                    return;
+                case CALL:
+                    executeCall(op);
+                    break;
+                case CALL_BUILTIN:
+                    executeCallBuiltIn(op);
+                    break;
+                case SPAWN:
+                    executeSpawn(op);
+                    break;
+                case TAIL_CALL:
+                    executeTailCall(op);
+                    break;
+                case RETURN:
+                    executeReturn(op);
+                    break;
+                case ERROR:
+                    throw new RuntimeException((String) constants[op.op1]);
+                case HALT:
+                    pc = instructions.length;
+                    break;
             }
         }
     }
@@ -122,7 +423,18 @@ public final class Machine {
     }
 
     private void executeJmp(Op op) {
-        pc = op.op1;
+        jump(op.op1);
+    }
+
+    /**
+     * Jumps to an instruction. A jump backwards ends an iteration of a loop, which counts for the Budget.
+     */
+    private void jump(int target) {
+        if (target < pc && meter != null) {
+            meter.step();
+        }
+
+        pc = target;
     }
 
     private void executeJmpEq(Op op) {
@@ -162,8 +474,7 @@ public final class Machine {
      */
     private void executeInput(Op op) {
         try {
-            var reader = new BufferedReader(new InputStreamReader(System.in));
-            String input = reader.readLine();
+            String input = context.readLine();
 
             ArrayList<Object> val = (ArrayList<Object>) heap;
             val.ensureCapacity(op.op1);
@@ -179,6 +490,600 @@ public final class Machine {
      */
     private void executeOutput(Op op) {
         Object value = heap.get(op.op1);
-        System.out.print(value);
+        context.getOut().print(String.valueOf(value));
+    }
+
+    private void fatalError(String fmt, Object... args) {
+        String message = "Fatal Error: " + fmt.formatted(args);
+        throw new RuntimeException(message);
+    }
+
+    private void push(Object value) {
+        if (sp == operands.length) {
+            operands = Arrays.copyOf(operands, sp * 2);
+        }
+
+        operands[sp++] = value;
+    }
+
+    private Scalar popScalar() {
+        return (Scalar) operands[--sp];
+    }
+
+    /**
+     * Pops a value that must not come from an expression that returns nothing (eg: a call to a void function).
+     *
+     * @param message The error raised otherwise.
+     * @return The value.
+     */
+    private Scalar popValue(String message) {
+        var value = (Scalar) operands[--sp];
+        if (value == null) {
+            fatalError(message);
+        }
+
+        return value;
+    }
+
+    /**
+     * Pops a value that must not come from an expression that returns nothing.
+     *
+     * @param message The error format raised otherwise; receives the kind of the expression.
+     * @param kind    The AstKind ordinal of the expression that produced the value.
+     * @return The value.
+     */
+    private Scalar popValue(String message, int kind) {
+        var value = (Scalar) operands[--sp];
+        if (value == null) {
+            fatalError(message, AstKind.values()[kind]);
+        }
+
+        return value;
+    }
+
+    private Scalar popCondition(Op op) {
+        return popValue(op.op2 == Compiler.JUMP_OPERAND
+                ? "Invalid expression in left-hand side operand."
+                : "Cannot use non-scalar expression as condition.");
+    }
+
+    private String name(int index) {
+        return (String) constants[index];
+    }
+
+    /**
+     * Gets the value on top of the operand stack, which must not come from an expression that returns nothing.
+     *
+     * @param kind    The AstKind ordinal of the expression that produced the value.
+     * @param message The error message format; receives the kind of the expression.
+     * @return The value on top of the stack.
+     */
+    private Scalar peekConstant(int kind, String message) {
+        var value = (Scalar) operands[sp - 1];
+        if (value == null && kind >= 0) {
+            fatalError(message, AstKind.values()[kind]);
+        }
+
+        return value;
+    }
+
+    /**
+     * Finds the slot of the variable or raises a fatal error if it's not defined.
+     *
+     * @param index The constant index of the AST_IDENTIFIER of the variable.
+     * @return The slot of the variable.
+     */
+    private int findVariable(int index) {
+        var identifier = (Ast) constants[index];
+        int slot = scope.findSlot(identifier);
+
+        if (slot < 0) {
+            fatalError("undefined variable '%s'.", identifier.value);
+        }
+
+        return slot;
+    }
+
+    private void executeLoadVar(Op op) {
+        push(scope.get(findVariable(op.op1)));
+    }
+
+    private void executeStoreVar(Op op) {
+        int slot = findVariable(op.op1);
+        String message = "Expression of type '%s' cannot be assigned to variable '" + ((Ast) constants[op.op1]).value + "'.";
+        scope.set(slot, peekConstant(op.op2, message));
+    }
+
+    private void executeDeclareVar(Op op) {
+        var identifier = (Ast) constants[op.op1];
+        if (scope.isDefined(identifier.slot)) {
+            fatalError("'%s' is already defined.", identifier.value);
+        }
+
+        String message = "Expression of type '%s' cannot be assigned to variable '" + identifier.value + "'.";
+        scope.set(identifier.slot, peekConstant(op.op2, message));
+    }
+
+    private void executeUnsetVar(Op op) {
+        int slot = scope.findSlot((Ast) constants[op.op1]);
+        if (slot >= 0) {
+            scope.remove(slot);
+        }
+    }
+
+    private void executeNewArray(Op op) {
+        int count = op.op1;
+        var values = new ScalarArray(count);
+
+        for (int i = sp - count; i < sp; i++) {
+            values.add((Scalar) operands[i]);
+        }
+
+        sp -= count;
+        push(Scalar.makeArray(values));
+    }
+
+    private List<Scalar> popList() {
+        Scalar array = popScalar();
+        if (!array.isArray()) {
+            fatalError("Cannot use array access on non array value.");
+        }
+
+        return array.toList();
+    }
+
+    private void executeArrayGet(Op op) {
+        Scalar index = popValue("Invalid array index expression.");
+        List<Scalar> list = popList();
+        push(list.get((int) index.toLong()));
+    }
+
+    private void executeArraySet(Op op) {
+        Scalar value = peekConstant(op.op1, "Expression of type '%s' cannot be assigned as value.");
+        sp--;
+        Scalar index = popValue("Invalid array index expression.");
+        List<Scalar> list = popList();
+
+        list.set((int) index.toLong(), value);
+        push(value);
+    }
+
+    private void executeArrayAppend(Op op) {
+        Scalar value = peekConstant(op.op1, "Expression of type '%s' cannot be assigned as value.");
+        sp--;
+        List<Scalar> list = popList();
+
+        list.add(value);
+        push(value);
+    }
+
+    private void executeArrayUnset(Op op) {
+        Scalar index = popValue("Invalid array index expression.");
+        List<Scalar> list = popList();
+        list.remove((int) index.toLong());
+    }
+
+    private void executeNewStruct(Op op) {
+        push(Scalar.makeObject((StructLayout) constants[op.op1]));
+    }
+
+    /**
+     * Pops the instance accessed by an AST_STRUCT_ACCESS and checks the member exists.
+     */
+    private StructInstance popInstance(Ast access) {
+        Scalar object = popScalar();
+
+        if (!object.isObject()) {
+            fatalError("Attempt to assign property '%s' on non-object value.", access.child[1].value);
+        }
+
+        StructInstance instance = object.toObject();
+        if (instance.getLayout().slotOf(access) < 0) {
+            fatalError("Undefined property %s::%s.", instance.getStructName(), access.child[1].value);
+        }
+
+        return instance;
+    }
+
+    private void executeStructGet(Op op) {
+        var access = (Ast) constants[op.op1];
+        StructInstance instance = popInstance(access);
+        push(instance.getValue(instance.getLayout().slotOf(access)));
+    }
+
+    private void executeStructSet(Op op) {
+        var access = (Ast) constants[op.op1];
+        Scalar value = peekConstant(op.op2, "Expression of type '%s' cannot be assigned as value.");
+        sp--;
+        StructInstance instance = popInstance(access);
+
+        instance.setValue(instance.getLayout().slotOf(access), value);
+        push(value);
+    }
+
+    /**
+     * Checks that neither operand of a binary operation comes from an expression that returns nothing.
+     */
+    private void checkOperands() {
+        if (operands[sp - 2] == null) {
+            fatalError("Invalid expression in left-hand side operand.");
+        }
+
+        if (operands[sp - 1] == null) {
+            fatalError("Invalid expression in right-hand side operand.");
+        }
+    }
+
+    /**
+     * Executes an arithmetic or comparison operator through the specialized node of its Ast.
+     */
+    private void executeOperator(Op op) {
+        checkOperands();
+        Scalar b = popScalar();
+        Scalar a = popScalar();
+
+        var site = (Ast) constants[op.op1];
+        push(site.operator.execute(site, a, b));
+    }
+
+    /**
+     * Increments or decrements the value and pushes the result of the expression.
+     *
+     * @return The modified value that must be written back.
+     */
+    private Scalar incDec(Scalar original, int mode) {
+        if (original.isArray() || original.isString() || original.isObject()) {
+            fatalError("Cannot increment a value of type '%s'.", original.getType());
+        }
+
+        Scalar one = Scalar.makeInt(1);
+        Scalar modified = (mode & Compiler.MODE_DECREMENT) != 0
+                ? ScalarOperation.subtract(original, one)
+                : ScalarOperation.add(original, one);
+
+        push((mode & Compiler.MODE_PREFIX) != 0 ? modified : original);
+        return modified;
+    }
+
+    private void executeIncDecVar(Op op) {
+        int slot = findVariable(op.op1);
+        Scalar modified = incDec(scope.get(slot), op.op2);
+        scope.set(slot, modified);
+    }
+
+    private void executeIncDecElem(Op op) {
+        int index = (int) popValue("Invalid array index expression.").toLong();
+        List<Scalar> list = popList();
+
+        Scalar modified = incDec(list.get(index), op.op2);
+        list.set(index, modified);
+    }
+
+    private void executeIncDecProp(Op op) {
+        var access = (Ast) constants[op.op1];
+        StructInstance instance = popInstance(access);
+        int slot = instance.getLayout().slotOf(access);
+
+        Scalar modified = incDec(instance.getValue(slot), op.op2);
+        instance.setValue(slot, modified);
+    }
+
+    private void executeLen(Op op) {
+        Scalar value = popValue("Expression of type '%s' cannot be used as argument.", op.op1);
+
+        if (value.isArray()) {
+            push(Scalar.makeInt(value.toList().size()));
+        } else if (value.isString()) {
+            push(Scalar.makeInt(value.stringLength()));
+        } else {
+            fatalError("Type '%s' cannot be used as len() argument.", value.getType());
+        }
+    }
+
+    private void executeCast(Op op) {
+        Scalar original = popValue("Cannot type cast non-scalar expression.");
+
+        Scalar casted = switch (ScalarType.values()[op.op1]) {
+            case ARRAY -> Scalar.makeArray(original.isArray() ? original.toArray().copy() : original.toList());
+            case BOOL -> Scalar.makeBool(original.toBoolean());
+            case FLOAT -> Scalar.makeFloat(original.toDouble());
+            case INT -> Scalar.makeInt(original.toLong());
+            case STRING -> Scalar.makeString(original.toString());
+            case OBJECT, TASK, CHANNEL, STREAM -> throw new IllegalStateException("Cannot cast to object.");
+        };
+
+        push(casted);
+    }
+
+    private void executeTypeCheck(Op op) {
+        Scalar value = popValue("Cannot type cast non-scalar expression.");
+        push(Scalar.makeBool(value.getType() == ScalarType.values()[op.op1]));
+    }
+
+    private void executeIterInit(Op op) {
+        Scalar iterable = popValue("Expression '%s' cannot be iterated.", op.op2);
+        Iterable<Scalar> values = iterable.toIterable();
+        if (values == null) {
+            fatalError("Cannot iterate non-array value '%s'.", iterable.getType());
+        }
+
+        // Create local var if needed
+        var identifier = (Ast) constants[op.op1];
+        if (scope.findSlot(identifier) < 0) {
+            scope.set(identifier.slot, null);
+        }
+
+        push(values.iterator());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void executeIterNext(Op op) {
+        var iterator = (Iterator<Scalar>) operands[sp - 1];
+
+        if (!iterator.hasNext()) {
+            pc = op.op1;
+            return;
+        }
+
+        var identifier = (Ast) constants[op.op2];
+        int slot = scope.findSlot(identifier);
+        scope.set(slot < 0 ? identifier.slot : slot, iterator.next());
+    }
+
+    private void executeParallelForeach(Op op) {
+        var loop = (Ast) constants[op.op1];
+        Scalar iterable = popScalar();
+
+        if (iterable == null) {
+            fatalError("Expression '%s' cannot be iterated.", loop.child[1].kind);
+        }
+
+        if (!iterable.isArray()) {
+            fatalError("Cannot iterate non-array value '%s'.", iterable.getType());
+        }
+
+        int body = op.op2;
+        String[] stackPrefix = callStack != null ? callStack.snapshot() : null;
+        String function = allocations != null ? allocations.getFunction() : "main";
+        int callDepth = meter != null ? meter.getDepth() : 0;
+
+        if (meter != null) {
+            meter.retire(); // The chunks take their own slices while this thread waits
+        }
+
+        ParallelLoop.run(loop, iterable.toList(), scope, context, (chunkContext, chunkScope, elements, from, to) -> {
+            var worker = new Machine(this, chunkContext, chunkScope, stackPrefix, function, callDepth);
+            int slot = loop.child[0].slot;
+
+            try {
+                for (int i = from; i < to; i++) {
+                    if (worker.meter != null) {
+                        worker.meter.step();
+                    }
+
+                    chunkScope.set(slot, elements[i]);
+                    worker.pc = body;
+                    worker.run();
+                }
+            } finally {
+                worker.detachProfilers();
+            }
+        });
+    }
+
+    private void executeCall(Op op) {
+        Program.Function func = functions[op.op1];
+        String[] params = func.getParameters();
+        int argc = op.op2;
+
+        // Validate argument count
+        if (argc < params.length) {
+            fatalError("Too few arguments: %s() expects %d arguments, %d provided.", func.getName(), params.length, argc);
+        }
+
+        if (fp == returnAddresses.length) {
+            returnAddresses = Arrays.copyOf(returnAddresses, fp * 2);
+            frameBases = Arrays.copyOf(frameBases, fp * 2);
+            tailCalled = Arrays.copyOf(tailCalled, fp * 2);
+            memoCaches = Arrays.copyOf(memoCaches, fp * 2);
+            memoKeys = Arrays.copyOf(memoKeys, fp * 2);
+        }
+
+        int base = sp - argc;
+
+        // Pure functions are served from their cache when possible
+        MemoCache cache = functionCaches[func.getIndex()];
+        MemoCache.Key key = cache != null ? MemoCache.key(operands, base, params.length) : null;
+        if (key != null) {
+            Scalar cached = cache.get(key);
+            if (cached != null) {
+                sp = base;
+                push(cached);
+                return;
+            }
+        }
+
+        returnAddresses[fp] = pc;
+        frameBases[fp] = base;
+        tailCalled[fp] = false;
+        memoCaches[fp] = cache;
+        memoKeys[fp] = key;
+        fp++;
+
+        if (meter != null) {
+            meter.enterCall();
+        }
+
+        if (callStack != null) {
+            callStack.push(func.getName());
+        }
+
+        if (allocations != null) {
+            allocations.enterFunction(func.getName());
+        }
+
+        // Create stack frame for the function and pass arguments
+        scope.push(func.getFrameSize());
+        for (int i = 0; i < params.length; i++) {
+            scope.set(i, (Scalar) operands[base + i]);
+        }
+
+        sp = base;
+        pc = func.getEntry();
+    }
+
+    /**
+     * Calls a function from a return statement, reusing the frame of the caller: the callee returns directly to
+     * the caller of the current function.
+     */
+    private void executeTailCall(Op op) {
+        Program.Function func = functions[op.op1];
+        String[] params = func.getParameters();
+        int argc = op.op2;
+
+        // Validate argument count
+        if (argc < params.length) {
+            fatalError("Too few arguments: %s() expects %d arguments, %d provided.", func.getName(), params.length, argc);
+        }
+
+        int base = sp - argc;
+
+        if (meter != null) {
+            meter.step();
+        }
+
+        if (allocations != null) {
+            allocations.replaceFunction(func.getName());
+        }
+
+        scope.reuse(func.getFrameSize());
+        for (int i = 0; i < params.length; i++) {
+            scope.set(i, (Scalar) operands[base + i]);
+        }
+
+        // Drop everything the caller left on the stack
+        sp = frameBases[fp - 1];
+        tailCalled[fp - 1] = true;
+        pc = func.getEntry();
+
+        if (callStack != null) {
+            callStack.replace(func.getName());
+        }
+    }
+
+    private void executeCallBuiltIn(Op op) {
+        FunctionHandler handler = builtIns[op.op1];
+        int argc = op.op2;
+        List<Scalar> args = new ArrayList<>(argc);
+
+        for (int i = sp - argc; i < sp; i++) {
+            args.add((Scalar) operands[i]);
+        }
+
+        sp -= argc;
+
+        callResult.setType(NodeType.NONE);
+        callResult.setValue(null);
+        handler.call(context, callResult, args);
+
+        if (callResult.hasError()) {
+            String error = callResult.getValue().toString();
+            fatalError(error);
+        }
+
+        push(callResult.getType() == NodeType.RETURN ? callResult.getValue() : null);
+    }
+
+    private void executeSpawn(Op op) {
+        var call = (Op) constants[op.op1];
+        int argc = call.op2;
+
+        // The task gets its own copy of the arrays and instances it receives
+        Scalar[] args = new Scalar[argc];
+        for (int i = 0; i < argc; i++) {
+            args[i] = Scalar.isolate((Scalar) operands[sp - argc + i]);
+        }
+
+        sp -= argc;
+        String[] stackPrefix = callStack != null ? callStack.snapshot() : null;
+
+        Task task = Task.start(context, taskContext -> {
+            var worker = new Machine(this, taskContext, new ScopeManager(), stackPrefix, "main", 0);
+            try {
+                return worker.callFunction(call, args);
+            } finally {
+                worker.detachProfilers();
+            }
+        });
+
+        push(Scalar.makeTask(task));
+    }
+
+    /**
+     * Runs a call instruction and the function it calls, on a Machine with no running code (eg: for a task).
+     *
+     * @return The value returned by the function, or null.
+     */
+    private Scalar callFunction(Op call, Scalar[] args) {
+        for (Scalar arg : args) {
+            push(arg);
+        }
+
+        // The function returns past the last instruction, which ends the run
+        pc = instructions.length;
+
+        if (call.code == OpCode.CALL_BUILTIN) {
+            executeCallBuiltIn(call);
+        } else {
+            executeCall(call);
+            run();
+        }
+
+        return popScalar();
+    }
+
+    private void executeReturn(Op op) {
+        Scalar value = null;
+        if (op.op1 != 0) {
+            value = peekConstant(op.op2, "Cannot return non-constant expression %s.");
+            sp--;
+        }
+
+        if (fp == 0) {
+            // Return from the top-level code ends the program
+            pc = instructions.length;
+            return;
+        }
+
+        fp--;
+        if (callStack != null) {
+            callStack.pop();
+        }
+
+        if (allocations != null) {
+            allocations.exitFunction();
+        }
+
+        if (meter != null) {
+            meter.exitCall();
+        }
+
+        if (value == null && tailCalled[fp]) {
+            // The callee returned nothing to the 'return' statement that called it
+            fatalError("Cannot return non-constant expression %s.", AstKind.AST_CALL);
+        }
+
+        if (memoKeys[fp] != null) {
+            memoCaches[fp].put(memoKeys[fp], value);
+            memoCaches[fp] = null;
+            memoKeys[fp] = null;
+        }
+
+        pc = returnAddresses[fp];
+        sp = frameBases[fp];
+
+        // Restore stack
+        scope.pop();
+        push(value);
     }
 }
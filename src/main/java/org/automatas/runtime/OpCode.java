@@ -24,4 +24,70 @@ public enum OpCode {
     /* I/O */
     INPUT,
     OUTPUT,
+
+    /* Operand stack */
+    CONST,
+    DUP,
+    DISCARD,
+
+    /* Variables */
+    LOAD_VAR,
+    STORE_VAR,
+    DECLARE_VAR,
+    UNSET_VAR,
+    END_BLOCK,
+
+    /* Arrays & Structs */
+    NEW_ARRAY,
+    CONST_ARRAY,
+    ARRAY_GET,
+    ARRAY_SET,
+    ARRAY_APPEND,
+    ARRAY_UNSET,
+    NEW_STRUCT,
+    STRUCT_GET,
+    STRUCT_SET,
+    STRUCT_UNSET,
+
+    /* Arithmetic operators */
+    ADD,
+    SUBTRACT,
+    MULTIPLY,
+    POW,
+    DIVIDE,
+    MODULO,
+    INC_DEC_VAR,
+    INC_DEC_ELEM,
+    INC_DEC_PROP,
+
+    /* Logic operators */
+    EQUALS,
+    NOT_EQUALS,
+    SMALLER,
+    SMALLER_OR_EQUAL,
+    GREATER,
+    GREATER_OR_EQUAL,
+    BOOL_NOT,
+    TO_BOOL,
+
+    /* Keywords */
+    LEN,
+    TYPEOF,
+    CAST,
+    IS,
+
+    /* Control flow */
+    JMP_TRUE,
+    JMP_FALSE,
+    ITER_INIT,
+    ITER_NEXT,
+    PARALLEL_FOREACH,
+    END_BODY,
+    CALL,
+    CALL_BUILTIN,
+    SPAWN,
+    TAIL_CALL,
+    RETURN,
+    ERROR,
+    HALT,
 }
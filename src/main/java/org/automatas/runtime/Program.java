@@ -0,0 +1,119 @@
+package org.automatas.runtime;
+
+/**
+ * Represents a compiled program: a flat list of instructions plus the tables referenced by their operands.
+ */
+public final class Program {
+    /**
+     * Describes a user function compiled into the program.
+     */
+    public static final class Function {
+        private final String name;
+        private final String[] parameters;
+        private final int frameSize;
+        private final int index;
+        private int entry;
+
+        public Function(String name, String[] parameters, int frameSize, int index) {
+            this.name = name;
+            this.parameters = parameters;
+            this.frameSize = frameSize;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String[] getParameters() {
+            return parameters;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        /**
+         * Gets the index of the user function, which locates its cache of results.
+         *
+         * @return The index of UserFunction.getIndex().
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the address of the first instruction of the function body.
+         *
+         * @return The instruction index.
+         */
+        public int getEntry() {
+            return entry;
+        }
+
+        void setEntry(int entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final Op[] instructions;
+    private final Object[] constants;
+    private final Function[] functions;
+    private final String[] builtIns;
+    private final int frameSize;
+
+    /**
+     * Program constructor.
+     *
+     * @param instructions The instructions to execute.
+     * @param constants    The constant pool (Scalars, names and struct layouts).
+     * @param functions    The user functions referenced by CALL instructions.
+     * @param builtIns     The names of the built-in functions referenced by CALL_BUILTIN instructions.
+     * @param frameSize    The number of slots required by the top-level code.
+     */
+    public Program(Op[] instructions, Object[] constants, Function[] functions, String[] builtIns, int frameSize) {
+        this.instructions = instructions;
+        this.constants = constants;
+        this.functions = functions;
+        this.builtIns = builtIns;
+        this.frameSize = frameSize;
+    }
+
+    public Op[] getInstructions() {
+        return instructions;
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    public Function[] getFunctions() {
+        return functions;
+    }
+
+    public String[] getBuiltIns() {
+        return builtIns;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+
+        for (int i = 0; i < instructions.length; i++) {
+            for (Function func : functions) {
+                if (func.getEntry() == i) {
+                    sb.append(func.getName()).append(":\n");
+                }
+            }
+
+            Op op = instructions[i];
+            sb.append("%5d  %-16s %d, %d\n".formatted(i, op.code, op.op1, op.op2));
+        }
+
+        return sb.toString();
+    }
+}